@@ -0,0 +1,152 @@
+package com.charisad.cardutil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Representative records for the benchmarks, in {@link Iso8583#unpack} map form.
+ */
+final class BenchmarkRecords {
+    static final String DE43 = "WOOLWORTHS 1234\\1 GEORGE STREET\\SYDNEY\\2000      NSWAUS";
+    static final byte[] DE55 = IccData.builder()
+            .add(0x9F26, Iso8583.hexStringToByteArray("A1B2C3D4E5F60708"))
+            .add(0x9F27, new byte[]{(byte) 0x80})
+            .add(0x9F10, Iso8583.hexStringToByteArray("0110A00000000000000000000000000000FF"))
+            .add(0x9F37, Iso8583.hexStringToByteArray("A1B2C3D4"))
+            .add(0x9F36, Iso8583.hexStringToByteArray("0031"))
+            .add(0x95, new byte[5])
+            .add(0x9A, Iso8583.hexStringToByteArray("260219"))
+            .add(0x9C, new byte[1])
+            .add(0x9F02, Iso8583.hexStringToByteArray("000000012345"))
+            .add(0x5F2A, Iso8583.hexStringToByteArray("0036"))
+            .add(0x82, Iso8583.hexStringToByteArray("1980"))
+            .add(0x9F1A, Iso8583.hexStringToByteArray("0036"))
+            .build();
+
+    private BenchmarkRecords() {
+    }
+
+    static Map<String, Object> byName(String name) {
+        switch (name) {
+            case "firstPresentment": return firstPresentment();
+            case "chargeback": return chargeback();
+            case "feeCollection": return feeCollection();
+            default: throw new IllegalArgumentException("Unknown record " + name);
+        }
+    }
+
+    /**
+     * 1240/200 chip card purchase.
+     */
+    static Map<String, Object> firstPresentment() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE2", "5555444433332222");
+        data.put("DE3", "000000");
+        data.put("DE4", 12345L);
+        data.put("DE5", 12345L);
+        data.put("DE6", 8765L);
+        data.put("DE9", 61000000L);
+        data.put("DE10", 70995000L);
+        data.put("DE12", LocalDateTime.of(2026, 2, 19, 12, 30, 5));
+        data.put("DE14", "2812");
+        data.put("DE22", "510101511344");
+        data.put("DE23", "001");
+        data.put("DE24", "200");
+        data.put("DE26", 5411);
+        data.put("DE31", "75555442050000000000017");
+        data.put("DE33", "002002");
+        data.put("DE37", "000000123456");
+        data.put("DE38", "A1B2C3");
+        data.put("DE42", "MERCHANT0000001");
+        data.put("DE43", DE43);
+        data.put("DE49", "036");
+        data.put("DE50", "036");
+        data.put("DE51", "840");
+        data.put("DE55", DE55);
+        data.put("DE63", "MCCABC1234567890");
+        data.put("DE71", 1);
+        data.put("DE94", "0000002002");
+        data.put("PDS0023", "POI");
+        data.put("PDS0052", "210");
+        data.put("PDS0148", "0362");
+        data.put("PDS0158", "MCC 1 A 1");
+        data.put("PDS0165", "M");
+        data.put("PDS0191", "2");
+        return data;
+    }
+
+    /**
+     * 1442/450 first chargeback with a reason code and documentation indicator.
+     */
+    static Map<String, Object> chargeback() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1442");
+        data.put("DE2", "5555444433332222");
+        data.put("DE3", "000000");
+        data.put("DE4", 12345L);
+        data.put("DE5", 12345L);
+        data.put("DE24", "450");
+        data.put("DE25", "4837");
+        data.put("DE26", 5411);
+        data.put("DE30", "000000012345000000000000");
+        data.put("DE31", "75555442050000000000017");
+        data.put("DE33", "002002");
+        data.put("DE38", "A1B2C3");
+        data.put("DE49", "036");
+        data.put("DE50", "036");
+        data.put("DE63", "MCCABC1234567890");
+        data.put("DE71", 2);
+        data.put("DE72", "CARDHOLDER DISPUTES TRANSACTION");
+        data.put("DE93", "0000002002");
+        data.put("DE94", "0000003003");
+        data.put("DE95", "0000012345");
+        data.put("PDS0025", "R260219");
+        data.put("PDS0148", "0362");
+        data.put("PDS0262", "1");
+        return data;
+    }
+
+    /**
+     * 1740/700 fee collection.
+     */
+    static Map<String, Object> feeCollection() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1740");
+        data.put("DE2", "5555444433332222");
+        data.put("DE3", "190000");
+        data.put("DE4", 2500L);
+        data.put("DE24", "700");
+        data.put("DE25", "7600");
+        data.put("DE33", "002002");
+        data.put("DE49", "036");
+        data.put("DE71", 3);
+        data.put("DE72", "FEE COLLECTION 00012345");
+        data.put("DE73", "260219");
+        data.put("DE93", "0000002002");
+        data.put("DE94", "0000003003");
+        data.put("PDS0137", "FEE0000012345678901");
+        data.put("PDS0148", "0362");
+        data.put("PDS0165", "M");
+        return data;
+    }
+
+    /**
+     * @return an IPM file of the three records repeated
+     */
+    static byte[] ipmFile(int records, boolean blocked) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Map<String, Object>> samples = List.of(firstPresentment(), chargeback(), feeCollection());
+        try (MciIpm.IpmWriter writer = new MciIpm.IpmWriter(out, blocked)) {
+            for (int i = 0; i < records; i++) writer.write(samples.get(i % samples.size()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
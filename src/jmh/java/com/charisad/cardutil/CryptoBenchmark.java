@@ -0,0 +1,60 @@
+package com.charisad.cardutil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PIN block, PVV, key check value and Luhn check digit calculations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CryptoBenchmark {
+    private static final String PAN = "1111222233334444";
+    private static final String KEY = "0123456789ABCDEFFEDCBA9876543210";
+
+    private byte[] pinBlock;
+
+    @Setup
+    public void setup() {
+        pinBlock = PinBlock.calculateIso0("1234", PAN);
+    }
+
+    @Benchmark
+    public byte[] calculateIso0() {
+        return PinBlock.calculateIso0("1234", PAN);
+    }
+
+    @Benchmark
+    public byte[] encryptTdes() {
+        return PinBlock.encryptTdes(pinBlock, KEY);
+    }
+
+    @Benchmark
+    public String calculatePvv() {
+        return PinBlock.calculatePvv("1234", KEY, 1, PAN);
+    }
+
+    @Benchmark
+    public String calculateKcv() {
+        return Key.calculateKcv(KEY);
+    }
+
+    @Benchmark
+    public String calculateCheckDigit() {
+        return Card.calculateCheckDigit("555544443333222");
+    }
+}
@@ -0,0 +1,98 @@
+package com.charisad.cardutil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bitmap handling in {@link BitUtils} and the PDS, ICC and DE43 field processors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FieldBenchmark {
+    private byte[] bitmap;
+    private BitSet bits;
+    private byte[] pds;
+    private De43Parser de43Parser;
+    private final Map<String, String> de43 = new HashMap<>();
+
+    @Setup
+    public void setup() {
+        bitmap = new Bitmap().set(2).set(3).set(4).set(12).set(14).set(22).set(24).set(26)
+                .set(31).set(33).set(42).set(43).set(48).set(49).set(55).set(63).set(71).set(94).toBytes();
+        bits = BitUtils.fromBytes(bitmap);
+        pds = "0023003POI0052003210014800403620158009MCC 1 A 10165001M019100012".getBytes(StandardCharsets.ISO_8859_1);
+        de43Parser = De43Parser.of(Config.DE43_PATTERN);
+    }
+
+    @Benchmark
+    public long bitUtilsGetLong() {
+        return BitUtils.getLong(bitmap, 0) ^ BitUtils.getLong(bitmap, 8);
+    }
+
+    @Benchmark
+    public int bitmapWalkBitSet() {
+        BitSet set = BitUtils.fromBytes(bitmap);
+        int sum = 0;
+        for (int bit = 2; bit <= 128; bit++) {
+            if (set.get(bit - 1)) sum += bit;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int bitmapWalkWords() {
+        long primary = BitUtils.getLong(bitmap, 0);
+        long secondary = primary < 0 ? BitUtils.getLong(bitmap, 8) : 0;
+        int sum = 0;
+        for (int bit = Bitmap.nextSetBit(primary, secondary, 2); bit > 0; bit = Bitmap.nextSetBit(primary, secondary, bit + 1)) {
+            sum += bit;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public BitSet bitUtilsFromBytes() {
+        return BitUtils.fromBytes(bitmap);
+    }
+
+    @Benchmark
+    public byte[] bitUtilsToBytes() {
+        return BitUtils.toBytes(bits, 16);
+    }
+
+    @Benchmark
+    public int pdsParse() {
+        return PdsData.parse(pds, 0, pds.length, StandardCharsets.ISO_8859_1).size();
+    }
+
+    @Benchmark
+    public int iccParse() {
+        return IccData.parse(BenchmarkRecords.DE55).size();
+    }
+
+    @Benchmark
+    public void de43Parse(Blackhole blackhole) {
+        de43.clear();
+        de43Parser.parse(BenchmarkRecords.DE43, de43);
+        blackhole.consume(de43);
+    }
+}
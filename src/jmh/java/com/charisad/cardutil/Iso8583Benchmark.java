@@ -0,0 +1,66 @@
+package com.charisad.cardutil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full and projected unpack and pack of a first presentment, a chargeback and a fee collection, and a lazy view.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Iso8583Benchmark {
+    @Param({"firstPresentment", "chargeback", "feeCollection"})
+    public String record;
+
+    private final FieldProjection projection = FieldProjection.of("DE2", "DE4", "DE24", "DE49", "PDS0023");
+    private Map<String, Object> data;
+    private byte[] message;
+    private final byte[] buffer = new byte[4096];
+
+    @Setup
+    public void setup() {
+        data = BenchmarkRecords.byName(record);
+        message = Iso8583.pack(data, Config.DEFAULT_BIT_CONFIG);
+    }
+
+    @Benchmark
+    public Map<String, Object> unpack() {
+        return Iso8583.unpack(message, Config.DEFAULT_BIT_CONFIG);
+    }
+
+    @Benchmark
+    public Map<String, Object> unpackProjected() {
+        return Iso8583.unpack(message, Config.DEFAULT_BIT_CONFIG, projection);
+    }
+
+    @Benchmark
+    public byte[] pack() {
+        return Iso8583.pack(data, Config.DEFAULT_BIT_CONFIG);
+    }
+
+    @Benchmark
+    public int packInto() {
+        return Iso8583.packInto(data, Config.DEFAULT_BIT_CONFIG, buffer, 0);
+    }
+
+    @Benchmark
+    public Object view() {
+        return Iso8583.view(message, Config.DEFAULT_BIT_CONFIG).get(4);
+    }
+}
@@ -0,0 +1,100 @@
+package com.charisad.cardutil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a file of 10,000 records with {@link MciIpm.VbsReader}, and the 1014 blocking streams on
+ * their own. Times are per file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VbsBenchmark {
+    private static final int RECORDS = 10_000;
+
+    private byte[] unblockedFile;
+    private byte[] blockedFile;
+    private final byte[] chunk = new byte[64 * 1024];
+
+    /**
+     * The reader input, blocked and unblocked.
+     */
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"true", "false"})
+        public boolean blocked;
+
+        private byte[] file;
+
+        @Setup
+        public void setup() {
+            file = BenchmarkRecords.ipmFile(RECORDS, blocked);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        unblockedFile = BenchmarkRecords.ipmFile(RECORDS, false);
+        blockedFile = BenchmarkRecords.ipmFile(RECORDS, true);
+    }
+
+    @Benchmark
+    public long vbsReader(Input input) throws IOException {
+        long[] bytes = new long[1];
+        try (MciIpm.VbsReader reader = new MciIpm.VbsReader(new ByteArrayInputStream(input.file), input.blocked)) {
+            reader.forEachRecord((buf, offset, length, recordNo) -> bytes[0] += length);
+        }
+        return bytes[0];
+    }
+
+    @Benchmark
+    public long unblock1014() throws IOException {
+        long total = 0;
+        try (InputStream in = new MciIpm.Unblock1014InputStream(new ByteArrayInputStream(blockedFile))) {
+            for (int n; (n = in.read(chunk)) > 0; ) total += n;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long block1014() throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        try (OutputStream out = new MciIpm.Block1014OutputStream(counter)) {
+            out.write(unblockedFile);
+        }
+        return counter.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -10,13 +10,17 @@ public class BitUtils {
      * Note: BitSet grows automatically.
      */
     public static BitSet fromBytes(byte[] bytes) {
-        BitSet bits = new BitSet(bytes.length * 8);
-        for (int i = 0; i < bytes.length * 8; i++) {
-            if ((bytes[i / 8] & (1 << (7 - (i % 8)))) > 0) {
-                bits.set(i);
+        // BitSet words are least significant bit first, so each big endian word is bit reversed
+        long[] words = new long[(bytes.length + 7) / 8];
+        for (int w = 0; w < words.length; w++) {
+            long word = 0;
+            for (int i = 0; i < 8; i++) {
+                int index = w * 8 + i;
+                word = (word << 8) | (index < bytes.length ? bytes[index] & 0xFF : 0);
             }
+            words[w] = Long.reverse(word);
         }
-        return bits;
+        return BitSet.valueOf(words);
     }
 
     /**
@@ -27,11 +31,44 @@ public class BitUtils {
      */
     public static byte[] toBytes(BitSet bits, int lengthBytes) {
         byte[] bytes = new byte[lengthBytes];
-        for (int i = 0; i < lengthBytes * 8; i++) {
-            if (bits.get(i)) {
-                bytes[i / 8] |= (1 << (7 - (i % 8)));
+        long[] words = bits.toLongArray();
+        for (int w = 0; w < words.length && w * 8 < lengthBytes; w++) {
+            long word = Long.reverse(words[w]);
+            for (int i = 0; i < 8 && w * 8 + i < lengthBytes; i++) {
+                bytes[w * 8 + i] = (byte) (word >>> (56 - i * 8));
             }
         }
         return bytes;
     }
+
+    /**
+     * Read 8 bytes as a big endian long, the first bit of the array is the top bit of the long.
+     */
+    public static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Write a long as 8 big endian bytes.
+     */
+    public static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = offset + 7; i >= offset; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Write an int as 4 big endian bytes, as used for VBS record lengths.
+     */
+    public static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
 }
@@ -0,0 +1,131 @@
+package com.charisad.cardutil;
+
+/**
+ * ISO8583 primary/secondary bitmap held in two longs.
+ * <p>
+ * Bit 1 (the top bit of the primary word) flags the secondary bitmap. Bits 1-64 live in the primary
+ * word and 65-128 in the secondary word, most significant bit first as on the wire. Present fields are
+ * walked with {@link Long#numberOfLeadingZeros} rather than testing every position.
+ */
+public final class Bitmap {
+    private static final long SECONDARY_FLAG = 1L << 63;
+
+    private long primary;
+    private long secondary;
+
+    public Bitmap() {
+    }
+
+    public Bitmap(long primary, long secondary) {
+        this.primary = primary;
+        this.secondary = secondary;
+    }
+
+    /**
+     * Read a binary bitmap, 8 bytes if bit 1 is clear else 16 bytes.
+     */
+    public static Bitmap read(byte[] bytes, int offset) {
+        long primary = BitUtils.getLong(bytes, offset);
+        long secondary = primary < 0 ? BitUtils.getLong(bytes, offset + 8) : 0;
+        return new Bitmap(primary, secondary);
+    }
+
+    public long primary() {
+        return primary;
+    }
+
+    public long secondary() {
+        return secondary;
+    }
+
+    public boolean get(int bit) {
+        return get(primary, secondary, bit);
+    }
+
+    public Bitmap set(int bit) {
+        if (bit < 1 || bit > 128) throw new IllegalArgumentException("Invalid bit " + bit);
+        if (bit <= 64) {
+            primary |= 1L << (64 - bit);
+        } else {
+            secondary |= 1L << (128 - bit);
+            primary |= SECONDARY_FLAG;
+        }
+        return this;
+    }
+
+    public Bitmap clear(int bit) {
+        if (bit < 1 || bit > 128) throw new IllegalArgumentException("Invalid bit " + bit);
+        if (bit <= 64) primary &= ~(1L << (64 - bit)); else secondary &= ~(1L << (128 - bit));
+        return this;
+    }
+
+    /**
+     * @return the first set bit at or after from, or -1.
+     */
+    public int nextSetBit(int from) {
+        return nextSetBit(primary, secondary, from);
+    }
+
+    public boolean hasSecondary() {
+        return primary < 0;
+    }
+
+    /**
+     * @return 8 for a primary only bitmap, 16 when bit 1 is set.
+     */
+    public int byteLength() {
+        return primary < 0 ? 16 : 8;
+    }
+
+    /**
+     * Write {@link #byteLength()} bytes at offset.
+     */
+    public int write(byte[] bytes, int offset) {
+        BitUtils.putLong(bytes, offset, primary);
+        if (primary >= 0) return 8;
+        BitUtils.putLong(bytes, offset + 8, secondary);
+        return 16;
+    }
+
+    public byte[] toBytes() {
+        byte[] bytes = new byte[byteLength()];
+        write(bytes, 0);
+        return bytes;
+    }
+
+    // --- Static forms for callers that keep the words in locals ---
+
+    static boolean get(long primary, long secondary, int bit) {
+        if (bit < 1 || bit > 128) return false;
+        return bit <= 64 ? (primary << (bit - 1)) < 0 : (secondary << (bit - 65)) < 0;
+    }
+
+    static int nextSetBit(long primary, long secondary, int from) {
+        if (from < 1) from = 1;
+        if (from <= 64) {
+            long word = primary & (-1L >>> (from - 1));
+            if (word != 0) return Long.numberOfLeadingZeros(word) + 1;
+            from = 65;
+        }
+        if (from <= 128) {
+            long word = secondary & (-1L >>> (from - 65));
+            if (word != 0) return Long.numberOfLeadingZeros(word) + 65;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Bitmap && ((Bitmap) o).primary == primary && ((Bitmap) o).secondary == secondary;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(primary) * 31 + Long.hashCode(secondary);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", primary, secondary);
+    }
+}
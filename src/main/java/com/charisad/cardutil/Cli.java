@@ -1,17 +1,21 @@
 package com.charisad.cardutil;
 
-import com.charisad.cardutil.MciIpm.IpmReader;
 import com.charisad.cardutil.MciIpm.IpmWriter;
+import com.charisad.cardutil.MciIpm.ParallelIpmReader;
+import com.charisad.cardutil.MciIpm.ParallelIpmWriter;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
 
 import java.io.*;
+import java.nio.channels.Channels;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Predicate;
 
 public class Cli {
 
@@ -30,6 +34,27 @@ public class Cli {
                 case "csv2ipm":
                     csv2ipm(Arrays.copyOfRange(args, 1, args.length));
                     break;
+                case "ipm2jsonl":
+                    ipm2jsonl(Arrays.copyOfRange(args, 1, args.length));
+                    break;
+                case "jsonl2ipm":
+                    jsonl2ipm(Arrays.copyOfRange(args, 1, args.length));
+                    break;
+                case "ipmsummary":
+                    ipmsummary(Arrays.copyOfRange(args, 1, args.length));
+                    break;
+                case "ipmfilter":
+                    ipmfilter(Arrays.copyOfRange(args, 1, args.length));
+                    break;
+                case "ipmsplit":
+                    ipmsplit(Arrays.copyOfRange(args, 1, args.length));
+                    break;
+                case "ipmmerge":
+                    ipmmerge(Arrays.copyOfRange(args, 1, args.length));
+                    break;
+                case "generate":
+                    generate(Arrays.copyOfRange(args, 1, args.length));
+                    break;
                 case "help":
                 default:
                     printUsage();
@@ -43,18 +68,39 @@ public class Cli {
     private static void printUsage() {
         System.out.println("Usage: java com.charisad.cardutil.Cli <command> [args]");
         System.out.println("Commands:");
-        System.out.println("  ipm2csv <input_ipm> [-o <output_csv>]");
-        System.out.println("  csv2ipm <input_csv> [-o <output_ipm>]");
+        System.out.println("  ipm2csv <input_ipm> [-o <output_csv>] [--threads <n>] [--fields <key>,<key>...]");
+        System.out.println("            Without --fields every MTI, DE, PDS, TAG and DE43 key found is a column");
+        System.out.println("  csv2ipm <input_csv> [-o <output_ipm>] [--threads <n>]");
+        System.out.println("  ipm2jsonl <input_ipm> [-o <output_jsonl>] [--threads <n>] [--base64]");
+        System.out.println("  jsonl2ipm <input_jsonl> [-o <output_ipm>] [--base64]");
+        System.out.println("  ipmsummary <input_ipm>");
+        System.out.println("  ipmfilter <input_ipm> -o <output_ipm> [--unblocked] [--mti <mti>] [--de <bit>=<value>]");
+        System.out.println("            [--prefix <bit>=<prefix>] [--range <bit>=<low>-<high>] [--has <bit>] [--pds <tag>[=<value>]]");
+        System.out.println("            Records matching all conditions are copied unchanged");
+        System.out.println("  ipmsplit <input_ipm> (--records <n> | --size <bytes> | --hash <bit> --parts <n>) [-o <prefix>] [--unblocked]");
+        System.out.println("  ipmmerge <input_ipm>... -o <output_ipm> [--by <bit>] [--unblocked]");
+        System.out.println("            Concatenates the inputs, or merges inputs each in order of field <bit>");
+        System.out.println("  generate -o <output_ipm> --records <n> [--seed <n>] [--date <yyyy-mm-dd>] [--threads <n>] [--unblocked]");
+        System.out.println("            Writes a synthetic file with header and trailer, the same for the same seed and date");
+        System.out.println("Input files may be gzip or zip compressed, output is compressed when named .gz or .zip");
     }
 
     private static void ipm2csv(String[] args) throws IOException {
         String input = null;
         String output = null;
+        int threads = 1;
+        List<String> fields = null;
         
         for (int i = 0; i < args.length; i++) {
             if ("-o".equals(args[i]) && i + 1 < args.length) {
                 output = args[i + 1];
                 i++;
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[i + 1]);
+                i++;
+            } else if ("--fields".equals(args[i]) && i + 1 < args.length) {
+                fields = Arrays.asList(args[i + 1].split(","));
+                i++;
             } else if (input == null) {
                 input = args[i];
             }
@@ -70,53 +116,51 @@ public class Cli {
 
         System.out.println("Converting IPM " + input + " to CSV " + output);
 
-        try (InputStream is = Files.newInputStream(new File(input).toPath());
-             IpmReader reader = new IpmReader(is, true, StandardCharsets.ISO_8859_1, Config.DEFAULT_BIT_CONFIG);
-             BufferedWriter writer = Files.newBufferedWriter(new File(output).toPath());
-             CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT.builder().setHeader().build())) {
-
-            // We need to collect all possible headers first? 
-            // Or just dump what we find. 
-            // Python version collects headers from all records if not specified?
-            // "dicts_to_csv" in python does collection if field_list is None.
-            // Since we are streaming, we might miss headers if we don't scan first.
-            // But double reading IPM is expensive.
-            // Let's use the columns defined in Config or a superset if possible.
-            // Ideally we should do a two-pass or just dump generic columns.
-            // For now, let's just dump known columns from Config + explicit ones found?
-            // No, CSVPrinter needs headers at start.
-            
-            // Let's use a standard list of ISO fields 1-128 + MTI
-            List<String> headers = new ArrayList<>();
-            headers.add("MTI");
-            for (int i = 1; i <= 128; i++) {
-                headers.add("DE" + i);
+        // Gzip and zip input is inflated as it is read, on a read ahead thread when decoding in parallel
+        try (InputStream is = threads > 1
+                ? MciIpm.openInput(new File(input).toPath(), 4, 1024 * 1024)
+                : MciIpm.openInput(new File(input).toPath());
+             // Records are read on this thread and decoded in file order on the worker threads
+             ParallelIpmReader reader = new ParallelIpmReader(is, true, StandardCharsets.ISO_8859_1, Config.DEFAULT_BIT_CONFIG)
+                     .withThreads(threads);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                     MciIpm.openOutput(new File(output).toPath()), StandardCharsets.UTF_8));
+             CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT)) {
+
+            if (fields != null) {
+                // Columns are known, only they are decoded and rows go straight to the CSV
+                reader.withProjection(FieldProjection.of(fields));
+                csvPrinter.printRecord(fields);
+                String[] values = new String[fields.size()];
+                for (Map<String, Object> record : reader) {
+                    for (int i = 0; i < values.length; i++) values[i] = RowSpill.text(record.get(fields.get(i)));
+                    csvPrinter.printRecord((Object[]) values);
+                }
+                return;
+            }
+
+            // Every key of every record is a column, so rows are held in a spill file until the
+            // last record has been read and the header is known
+            try (RowSpill spill = new RowSpill()) {
+                for (Map<String, Object> record : reader) spill.add(record);
+                csvPrinter.printRecord(spill.columns());
+                spill.replay(values -> csvPrinter.printRecord((Object[]) values));
             }
-             // Add PDS/ICC subfields if we want to extract them? 
-             // The Python code seems to flatten dicts.
-             // For a simple start, let's just dump MTI + DEs.
-             
-             // Wait, we need to print header first.
-             csvPrinter.printRecord(headers);
-
-             for (Map<String, Object> record : reader) {
-                 List<Object> values = new ArrayList<>();
-                 for (String h : headers) {
-                     values.add(record.getOrDefault(h, ""));
-                 }
-                 csvPrinter.printRecord(values);
-             }
         }
     }
 
     private static void csv2ipm(String[] args) throws IOException {
         String input = null;
         String output = null;
+        int threads = 1;
 
         for (int i = 0; i < args.length; i++) {
             if ("-o".equals(args[i]) && i + 1 < args.length) {
                 output = args[i + 1];
                 i++;
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[i + 1]);
+                i++;
             } else if (input == null) {
                 input = args[i];
             }
@@ -132,24 +176,312 @@ public class Cli {
 
         System.out.println("Converting CSV " + input + " to IPM " + output);
 
-        try (Reader reader = Files.newBufferedReader(new File(input).toPath());
+        try (Reader reader = new BufferedReader(new InputStreamReader(
+                MciIpm.openInput(new File(input).toPath()), StandardCharsets.UTF_8), 1024 * 1024);
              CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build());
-             OutputStream os = Files.newOutputStream(new File(output).toPath());
-             IpmWriter ipmWriter = new IpmWriter(os, true, StandardCharsets.ISO_8859_1, Config.DEFAULT_BIT_CONFIG)) {
+             // Rows are parsed on this thread and packed in batches on the worker threads, in row order
+             ParallelIpmWriter ipmWriter = new ParallelIpmWriter(Channels.newChannel(MciIpm.openOutput(new File(output).toPath())),
+                     true, StandardCharsets.ISO_8859_1, Config.DEFAULT_BIT_CONFIG).withThreads(threads)) {
 
+            // The header is mapped to fields once, rows are packed from their values
+            IpmRowMapping mapping = IpmRowMapping.of(csvParser.getHeaderNames(), Config.DEFAULT_BIT_CONFIG);
             for (CSVRecord csvRecord : csvParser) {
-                Map<String, Object> record = new HashMap<>();
-                Map<String, String> row = csvRecord.toMap();
-                
-                for (Map.Entry<String, String> entry : row.entrySet()) {
-                    String key = entry.getKey();
-                    String val = entry.getValue();
-                    if (val != null && !val.isEmpty()) {
-                        record.put(key, val);
-                    }
+                ipmWriter.write(mapping, csvRecord.values());
+            }
+        }
+    }
+
+    private static void generate(String[] args) throws IOException {
+        String output = null;
+        long records = -1;
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean blocked = true;
+        LocalDate date = LocalDate.now();
+
+        for (int i = 0; i < args.length; i++) {
+            if ("--unblocked".equals(args[i])) {
+                blocked = false;
+            } else if (i + 1 < args.length) {
+                switch (args[i]) {
+                    case "-o": output = args[++i]; break;
+                    case "--records": records = Long.parseLong(args[++i]); break;
+                    case "--seed": seed = Long.parseLong(args[++i]); break;
+                    case "--date": date = LocalDate.parse(args[++i]); break;
+                    case "--threads": threads = Integer.parseInt(args[++i]); break;
+                    default:
+                        System.out.println("Error: Unknown option " + args[i]);
+                        return;
                 }
-                ipmWriter.write(record);
             }
         }
+        if (output == null || records < 0) {
+            System.out.println("Error: Output file and record count required");
+            return;
+        }
+
+        System.out.println("Generating " + records + " records to " + output);
+        long written = new IpmGenerator(seed).withDate(date).withThreads(threads)
+                .generate(new File(output).toPath(), blocked, records);
+        System.out.println("Records written (with header and trailer): " + written);
+    }
+
+    private static void ipmsummary(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Error: Input file required");
+            return;
+        }
+        String input = args[0];
+
+        // Records are not decoded, only the fields used by the summary are located and read
+        IpmFileSummary summary = new IpmFileSummary(StandardCharsets.ISO_8859_1, Config.DEFAULT_BIT_CONFIG);
+        try (InputStream is = MciIpm.openInput(new File(input).toPath());
+             MciIpm.VbsReader reader = new MciIpm.VbsReader(is, true)) {
+            reader.forEachRecord(summary);
+        }
+
+        System.out.println("File: " + input);
+        System.out.println("Records: " + summary.records());
+        for (Map.Entry<String, Long> entry : summary.counts().entrySet()) {
+            System.out.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        for (int bit = 4; bit <= 6; bit++) {
+            Map<String, Long> amounts = summary.amounts(bit);
+            if (amounts.isEmpty()) continue;
+            System.out.println("DE" + bit + " totals:");
+            for (Map.Entry<String, Long> entry : amounts.entrySet()) {
+                String currency = entry.getKey().isEmpty() ? "(none)" : entry.getKey();
+                System.out.println("  " + currency + ": " + entry.getValue());
+            }
+        }
+        if (summary.firstMessageNumber() >= 0) {
+            System.out.println("Message numbers: " + summary.firstMessageNumber() + " - " + summary.lastMessageNumber());
+        }
+        List<String> problems = summary.reconcile();
+        if (problems.isEmpty()) {
+            System.out.println("Reconciled with trailer");
+        } else {
+            for (String problem : problems) System.out.println("Error: " + problem);
+        }
+    }
+
+    private static void ipmfilter(String[] args) throws IOException {
+        String input = null;
+        String output = null;
+        boolean blocked = true;
+        Predicate<Iso8583View> predicate = view -> true;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--unblocked".equals(arg)) {
+                blocked = false;
+            } else if (arg.startsWith("-") && i + 1 < args.length) {
+                String value = args[++i];
+                if ("-o".equals(arg)) {
+                    output = value;
+                } else {
+                    predicate = predicate.and(filterOption(arg, value));
+                }
+            } else if (input == null) {
+                input = arg;
+            }
+        }
+
+        if (input == null || output == null) {
+            System.out.println("Error: Input and output files required");
+            return;
+        }
+
+        System.out.println("Filtering IPM " + input + " to " + output);
+
+        IpmFilter filter = new IpmFilter(predicate, StandardCharsets.ISO_8859_1, Config.DEFAULT_BIT_CONFIG);
+        try (InputStream is = MciIpm.openInput(new File(input).toPath());
+             MciIpm.VbsReader reader = new MciIpm.VbsReader(is, true);
+             MciIpm.VbsChannelWriter writer = new MciIpm.VbsChannelWriter(
+                     Channels.newChannel(MciIpm.openOutput(new File(output).toPath())), blocked)) {
+            filter.filter(reader, writer);
+        }
+        System.out.println("Copied " + filter.matched() + " of " + filter.records() + " records");
+    }
+
+    private static Predicate<Iso8583View> filterOption(String option, String value) {
+        int eq = value.indexOf('=');
+        switch (option) {
+            case "--mti":
+                return IpmFilter.mti(value);
+            case "--has":
+                return IpmFilter.has(Integer.parseInt(value));
+            case "--pds":
+                return eq < 0 ? IpmFilter.hasPds(value) : IpmFilter.pdsEquals(value.substring(0, eq), value.substring(eq + 1));
+            case "--de":
+            case "--prefix":
+            case "--range":
+                if (eq < 0) throw new IllegalArgumentException(option + " needs <bit>=<value>: " + value);
+                int bit = Integer.parseInt(value.substring(0, eq));
+                String fieldValue = value.substring(eq + 1);
+                if ("--de".equals(option)) return IpmFilter.fieldEquals(bit, fieldValue);
+                if ("--prefix".equals(option)) return IpmFilter.fieldStartsWith(bit, fieldValue);
+                int dash = fieldValue.indexOf('-');
+                if (dash < 0) throw new IllegalArgumentException("--range needs <bit>=<low>-<high>: " + value);
+                return IpmFilter.fieldBetween(bit, fieldValue.substring(0, dash), fieldValue.substring(dash + 1));
+            default:
+                throw new IllegalArgumentException("Unknown option " + option);
+        }
+    }
+
+    private static void ipmsplit(String[] args) throws IOException {
+        String input = null;
+        String prefix = null;
+        boolean blocked = true;
+        long records = 0;
+        long size = 0;
+        int hashBit = 0;
+        int parts = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--unblocked".equals(arg)) {
+                blocked = false;
+            } else if ("-o".equals(arg) && i + 1 < args.length) {
+                prefix = args[++i];
+            } else if ("--records".equals(arg) && i + 1 < args.length) {
+                records = Long.parseLong(args[++i]);
+            } else if ("--size".equals(arg) && i + 1 < args.length) {
+                size = Long.parseLong(args[++i]);
+            } else if ("--hash".equals(arg) && i + 1 < args.length) {
+                hashBit = Integer.parseInt(args[++i]);
+            } else if ("--parts".equals(arg) && i + 1 < args.length) {
+                parts = Integer.parseInt(args[++i]);
+            } else if (input == null) {
+                input = arg;
+            }
+        }
+
+        if (input == null) {
+            System.out.println("Error: Input file required");
+            return;
+        }
+        String outputPrefix = prefix == null ? input : prefix;
+
+        MciIpm.IpmSplitter splitter = new MciIpm.IpmSplitter(new File(input).toPath(), true,
+                StandardCharsets.ISO_8859_1, Config.DEFAULT_BIT_CONFIG)
+                .withOutputBlocked(blocked)
+                .withOutput(part -> new File(outputPrefix + String.format(".%03d", part)).toPath());
+        List<Path> written;
+        if (records > 0) {
+            written = splitter.byRecordCount(records);
+        } else if (size > 0) {
+            written = splitter.bySize(size);
+        } else if (hashBit > 0 && parts > 0) {
+            written = splitter.byHash(parts, hashBit);
+        } else {
+            System.out.println("Error: One of --records, --size or --hash with --parts required");
+            return;
+        }
+        for (Path path : written) System.out.println("Wrote " + path);
+    }
+
+    private static void ipmmerge(String[] args) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        String output = null;
+        boolean blocked = true;
+        int bit = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--unblocked".equals(arg)) {
+                blocked = false;
+            } else if ("-o".equals(arg) && i + 1 < args.length) {
+                output = args[++i];
+            } else if ("--by".equals(arg) && i + 1 < args.length) {
+                bit = Integer.parseInt(args[++i]);
+            } else {
+                inputs.add(new File(arg).toPath());
+            }
+        }
+
+        if (inputs.isEmpty() || output == null) {
+            System.out.println("Error: Input and output files required");
+            return;
+        }
+
+        long count = bit > 0
+                ? MciIpm.merge(inputs, true, new File(output).toPath(), blocked, MciIpm.fieldOrder(bit),
+                        StandardCharsets.ISO_8859_1, Config.DEFAULT_BIT_CONFIG)
+                : MciIpm.concat(inputs, true, new File(output).toPath(), blocked);
+        System.out.println("Wrote " + count + " records to " + output);
+    }
+
+    private static void ipm2jsonl(String[] args) throws IOException {
+        String input = null;
+        String output = null;
+        int threads = 1;
+        JsonLinesWriter.BinaryEncoding binary = JsonLinesWriter.BinaryEncoding.HEX;
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--base64".equals(args[i])) {
+                binary = JsonLinesWriter.BinaryEncoding.BASE64;
+            } else if (input == null) {
+                input = args[i];
+            }
+        }
+
+        if (input == null) {
+            System.out.println("Error: Input file required");
+            return;
+        }
+        if (output == null) {
+            output = input + ".jsonl";
+        }
+
+        System.out.println("Converting IPM " + input + " to JSON lines " + output);
+
+        try (InputStream is = threads > 1
+                ? MciIpm.openInput(new File(input).toPath(), 4, 1024 * 1024)
+                : MciIpm.openInput(new File(input).toPath());
+             // Records are decoded on the worker threads and written in file order
+             ParallelIpmReader reader = new ParallelIpmReader(is, true, StandardCharsets.ISO_8859_1, Config.DEFAULT_BIT_CONFIG)
+                     .withThreads(threads);
+             JsonLinesWriter writer = new JsonLinesWriter(MciIpm.openOutput(new File(output).toPath()))
+                     .withBinaryEncoding(binary)) {
+            for (Map<String, Object> record : reader) writer.write(record);
+        }
+    }
+
+    private static void jsonl2ipm(String[] args) throws IOException {
+        String input = null;
+        String output = null;
+        JsonLinesWriter.BinaryEncoding binary = JsonLinesWriter.BinaryEncoding.HEX;
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else if ("--base64".equals(args[i])) {
+                binary = JsonLinesWriter.BinaryEncoding.BASE64;
+            } else if (input == null) {
+                input = args[i];
+            }
+        }
+
+        if (input == null) {
+            System.out.println("Error: Input file required");
+            return;
+        }
+        if (output == null) {
+            output = input.replace(".jsonl", "") + ".ipm";
+        }
+
+        System.out.println("Converting JSON lines " + input + " to IPM " + output);
+
+        try (JsonLinesReader reader = new JsonLinesReader(MciIpm.openInput(new File(input).toPath()), Config.DEFAULT_BIT_CONFIG)
+                     .withBinaryEncoding(binary);
+             IpmWriter ipmWriter = new IpmWriter(MciIpm.openOutput(new File(output).toPath()), true,
+                     StandardCharsets.ISO_8859_1, Config.DEFAULT_BIT_CONFIG)) {
+            for (Map<String, Object> record : reader) ipmWriter.write(record);
+        }
     }
 }
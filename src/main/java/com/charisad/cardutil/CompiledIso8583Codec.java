@@ -0,0 +1,985 @@
+package com.charisad.cardutil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * ISO8583 codec compiled once from a {@link BitConfig} map.
+ * <p>
+ * The config is flattened into a dense array of field descriptors indexed by bit number, with the
+ * field processor resolved to an enum and date formatters / DE43 parsers built up front, so the
+ * per-record work in {@link #unpack} and {@link #pack} does no map lookups or string compares on
+ * the config.
+ * <p>
+ * The codec captures the config at compile time. If a config map is changed after it was compiled,
+ * compile it again.
+ */
+public final class CompiledIso8583Codec {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompiledIso8583Codec.class);
+
+    static final int MAX_BIT = 128;
+    static final int ABSENT = -1;
+
+    private static final CompiledIso8583Codec DEFAULT = new CompiledIso8583Codec(Config.DEFAULT_BIT_CONFIG);
+    // Single entry cache for the last non-default config, jobs almost always use one config
+    private static volatile CompiledIso8583Codec lastCompiled;
+
+    public enum Processor {
+        NONE, PDS, ICC, DE43;
+
+        static Processor of(String fieldProcessor) {
+            if (fieldProcessor == null) return NONE;
+            switch (fieldProcessor) {
+                case "PDS": return PDS;
+                case "ICC": return ICC;
+                case "DE43": return DE43;
+                default: return NONE;
+            }
+        }
+    }
+
+    public enum JavaType {
+        STRING, LONG, DECIMAL, DATETIME;
+
+        static JavaType of(String fieldJavaType) {
+            if (fieldJavaType == null) return STRING;
+            switch (fieldJavaType) {
+                case "int":
+                case "long": return LONG;
+                case "decimal": return DECIMAL;
+                case "datetime": return DATETIME;
+                default: return STRING;
+            }
+        }
+    }
+
+    /**
+     * Pre-resolved settings for a single bit.
+     */
+    static final class FieldDescriptor {
+        final int bit;
+        final String key;
+        final BitConfig config;
+        final BitConfig.FieldType fieldType;
+        final int fieldLength;
+        final int lengthSize;
+        final Processor processor;
+        final JavaType javaType;
+        final DateTimeFormatter dateFormatter;
+        final FieldCodecs.DatePattern datePattern;
+        final De43Parser de43;
+
+        FieldDescriptor(int bit, BitConfig config) {
+            this.bit = bit;
+            this.key = "DE" + bit;
+            this.config = config;
+            this.fieldType = config.fieldType();
+            this.fieldLength = config.fieldLength();
+            this.lengthSize = fieldType == BitConfig.FieldType.LLVAR ? 2 : fieldType == BitConfig.FieldType.LLLVAR ? 3 : 0;
+            this.processor = Processor.of(config.fieldProcessor());
+            this.javaType = JavaType.of(config.fieldJavaType());
+            String fmt = config.fieldDateFormat();
+            this.dateFormatter = javaType == JavaType.DATETIME
+                    ? DateTimeFormatter.ofPattern(fmt == null ? "yyMMdd" : fmt) : null;
+            this.datePattern = FieldCodecs.DatePattern.of(fmt == null ? "yyMMdd" : fmt);
+            De43Parser parser = null;
+            if (processor == Processor.DE43) {
+                try {
+                    parser = De43Parser.of(config.fieldProcessorConfig());
+                } catch (Exception e) {
+                    LOGGER.warn("Invalid DE43 config for bit {}", bit, e);
+                }
+            }
+            this.de43 = parser;
+        }
+
+        boolean isFixed() {
+            return lengthSize == 0;
+        }
+    }
+
+    private final Map<Integer, BitConfig> source;
+    private final FieldDescriptor[] fields;
+    private final int[] pdsBits;
+    private final boolean compactBitmap;
+
+    private CompiledIso8583Codec(CompiledIso8583Codec codec, boolean compactBitmap) {
+        this.source = codec.source;
+        this.fields = codec.fields;
+        this.pdsBits = codec.pdsBits;
+        this.compactBitmap = compactBitmap;
+    }
+
+    private CompiledIso8583Codec(Map<Integer, BitConfig> config) {
+        this.source = config;
+        this.fields = new FieldDescriptor[MAX_BIT + 1];
+        this.compactBitmap = false;
+        List<Integer> pds = new ArrayList<>();
+        for (Map.Entry<Integer, BitConfig> entry : config.entrySet()) {
+            int bit = entry.getKey();
+            if (bit < 1 || bit > MAX_BIT || entry.getValue() == null) continue;
+            fields[bit] = new FieldDescriptor(bit, entry.getValue());
+            if (fields[bit].processor == Processor.PDS) pds.add(bit);
+        }
+        Collections.sort(pds);
+        pdsBits = pds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Compile a codec for the given config.
+     */
+    public static CompiledIso8583Codec compile(Map<Integer, BitConfig> config) {
+        if (config == null) return DEFAULT;
+        return new CompiledIso8583Codec(config);
+    }
+
+    /**
+     * Get a codec for the given config, reusing a previously compiled one for the same map instance.
+     * A null config returns the codec for {@link Config#DEFAULT_BIT_CONFIG}.
+     */
+    public static CompiledIso8583Codec of(Map<Integer, BitConfig> config) {
+        if (config == null || config == Config.DEFAULT_BIT_CONFIG) return DEFAULT;
+        CompiledIso8583Codec codec = lastCompiled;
+        if (codec == null || codec.source != config) {
+            codec = new CompiledIso8583Codec(config);
+            lastCompiled = codec;
+        }
+        return codec;
+    }
+
+    /**
+     * Codec that packs an 8 byte primary only bitmap when no field above 64 is present, as some schemes
+     * expect. IPM files always carry the secondary bitmap so the default codec always writes 16 bytes.
+     * Unpacking handles both forms either way.
+     */
+    public CompiledIso8583Codec withCompactBitmap(boolean compactBitmap) {
+        return compactBitmap == this.compactBitmap ? this : new CompiledIso8583Codec(this, compactBitmap);
+    }
+
+    FieldDescriptor field(int bit) {
+        return bit >= 1 && bit <= MAX_BIT ? fields[bit] : null;
+    }
+
+    /**
+     * @return DE43 values that did not fit the name/location layout, when the DE43 processor is configured
+     * with on_error=COUNT or on_error=WARN. Codecs are shared by every reader and writer with the same
+     * config, so this is a running total for the process, take the difference of two calls to count
+     * the errors of one file.
+     */
+    public long de43Errors() {
+        long errors = 0;
+        for (FieldDescriptor field : fields) {
+            if (field != null && field.de43 != null) errors += field.de43.errorCount();
+        }
+        return errors;
+    }
+
+    int[] pdsBits() {
+        return pdsBits;
+    }
+
+    // --- Unpack ---
+
+    /**
+     * Index the message without decoding any fields, see {@link Iso8583View}.
+     */
+    public Iso8583View view(byte[] message, Charset encoding, boolean hexBitmap) {
+        return new Iso8583View(this, message, 0, message.length, encoding, hexBitmap);
+    }
+
+    public Iso8583View view(byte[] message, int offset, int length, Charset encoding, boolean hexBitmap) {
+        return new Iso8583View(this, message, offset, length, encoding, hexBitmap);
+    }
+
+    /**
+     * Reset the target message and unpack into it. Fields are located now and decoded on access, see
+     * {@link IsoMessage}.
+     */
+    public IsoMessage unpackInto(byte[] message, Charset encoding, boolean hexBitmap, IsoMessage target) {
+        return unpackInto(message, 0, message.length, encoding, hexBitmap, target);
+    }
+
+    public IsoMessage unpackInto(byte[] message, int offset, int length, Charset encoding, boolean hexBitmap, IsoMessage target) {
+        target.wrap(this, message, offset, length, encoding, hexBitmap);
+        return target;
+    }
+
+    /**
+     * Locate the fields of a message without decoding them. Field data offsets and lengths are stored
+     * by bit number, absent fields get {@link #ABSENT}.
+     */
+    void index(byte[] message, int offset, int length, Charset encoding, boolean hexBitmap, int[] offsets, int[] lengths) {
+        Arrays.fill(offsets, ABSENT);
+        int end = offset + length;
+        int pointer = offset + 4;
+        try {
+            int wordSize = hexBitmap ? 16 : 8;
+            if (pointer + wordSize > end) throw new IndexOutOfBoundsException("Message shorter than bitmap");
+            long primary = readBitmapWord(message, pointer, hexBitmap, encoding);
+            pointer += wordSize;
+            long secondary = 0;
+            if (primary < 0) {
+                if (pointer + wordSize > end) throw new IndexOutOfBoundsException("Message shorter than bitmap");
+                secondary = readBitmapWord(message, pointer, hexBitmap, encoding);
+                pointer += wordSize;
+            }
+
+            for (int bit = Bitmap.nextSetBit(primary, secondary, 2); bit > 0; bit = Bitmap.nextSetBit(primary, secondary, bit + 1)) {
+                FieldDescriptor field = fields[bit];
+                if (field == null) {
+                    throw new Iso8583DataError("No bit config available for bit " + bit,
+                            Arrays.copyOfRange(message, offset, end), null);
+                }
+                int fieldLength = field.fieldLength;
+                if (field.lengthSize > 0) {
+                    fieldLength = pointer + field.lengthSize <= end ? digits(message, pointer, field.lengthSize) : -1;
+                    if (fieldLength < 0) {
+                        throw new Iso8583DataError("Invalid field length DE" + field.bit,
+                                Arrays.copyOfRange(message, offset, end), null);
+                    }
+                    pointer += field.lengthSize;
+                }
+                if (pointer + fieldLength > end) {
+                    throw new Iso8583DataError(
+                            String.format("Message data not correct length. DE%d needs %d bytes at %d, total %d",
+                                    field.bit, fieldLength, pointer - offset, length),
+                            Arrays.copyOfRange(message, offset, end), null);
+                }
+                offsets[field.bit] = pointer;
+                lengths[field.bit] = fieldLength;
+                pointer += fieldLength;
+            }
+        } catch (Iso8583DataError e) {
+            throw e;
+        } catch (Exception e) {
+            throw new Iso8583DataError("Failed unpacking message", Arrays.copyOfRange(message, offset, end), e);
+        }
+
+        if (pointer != end) {
+            throw new Iso8583DataError(
+                    String.format("Message data not correct length. Parsed to %d, total %d", pointer - offset, length),
+                    Arrays.copyOfRange(message, offset, end), null);
+        }
+    }
+
+    /**
+     * Read one 64 bit bitmap word, 8 binary bytes or 16 hex characters.
+     */
+    private static long readBitmapWord(byte[] message, int pointer, boolean hexBitmap, Charset encoding) {
+        if (pointer + (hexBitmap ? 16 : 8) > message.length) {
+            throw new IndexOutOfBoundsException("Message shorter than bitmap");
+        }
+        if (!hexBitmap) return BitUtils.getLong(message, pointer);
+        if (isLatin(encoding)) {
+            long word = 0;
+            for (int i = pointer; i < pointer + 16; i++) {
+                int digit = Character.digit(message[i] & 0xFF, 16);
+                if (digit < 0) throw new NumberFormatException("Invalid hex bitmap");
+                word = (word << 4) | digit;
+            }
+            return word;
+        }
+        return Long.parseUnsignedLong(new String(message, pointer, 16, encoding), 16);
+    }
+
+    public Map<String, Object> unpack(byte[] message, Charset encoding, boolean hexBitmap) {
+        return unpack(message, encoding, hexBitmap, null);
+    }
+
+    /**
+     * Unpack only the fields in the projection, a null projection unpacks everything.
+     */
+    public Map<String, Object> unpack(byte[] message, Charset encoding, boolean hexBitmap, FieldProjection projection) {
+        LOGGER.debug("Processing message: len={}", message.length);
+
+        try {
+            int pointer = 0;
+            // MTI
+            String mti = new String(message, pointer, 4, encoding);
+            pointer += 4;
+
+            // Bitmap, secondary only present when bit 1 is set
+            int wordSize = hexBitmap ? 16 : 8;
+            long primary = readBitmapWord(message, pointer, hexBitmap, encoding);
+            pointer += wordSize;
+            long secondary = 0;
+            if (primary < 0) {
+                secondary = readBitmapWord(message, pointer, hexBitmap, encoding);
+                pointer += wordSize;
+            }
+
+            Map<String, Object> returnValues = new HashMap<>();
+            returnValues.put("MTI", mti);
+
+            // Process fields
+            for (int bit = Bitmap.nextSetBit(primary, secondary, 2); bit > 0; bit = Bitmap.nextSetBit(primary, secondary, bit + 1)) {
+                FieldDescriptor field = fields[bit];
+                if (field == null) {
+                    throw new Iso8583DataError("No bit config available for bit " + bit, message, null);
+                }
+                LOGGER.debug("Processing bit {}", field.bit);
+                pointer = projection == null
+                        ? parseField(field, message, pointer, encoding, returnValues)
+                        : parseField(field, message, pointer, encoding, projection, returnValues);
+            }
+
+            if (pointer != message.length) {
+                throw new Iso8583DataError(
+                        String.format("Message data not correct length. Parsed to %d, total %d", pointer, message.length),
+                        message, null);
+            }
+
+            return returnValues;
+
+        } catch (Iso8583DataError e) {
+            throw e;
+        } catch (Exception e) {
+            throw new Iso8583DataError("Failed unpacking message", message, e);
+        }
+    }
+
+    private int parseField(FieldDescriptor field, byte[] message, int pointer, Charset encoding, Map<String, Object> out) {
+        int fieldLength = fieldLength(field, message, pointer);
+        pointer += field.lengthSize;
+
+        if (field.processor == Processor.ICC) {
+            out.put(field.key, Arrays.copyOfRange(message, pointer, pointer + fieldLength));
+            out.putAll(Iso8583.iccToDict(message, pointer, fieldLength, field.config.fieldProcessorConfig()));
+            return pointer + fieldLength;
+        }
+
+        Object value = decode(field, message, pointer, fieldLength, encoding);
+        out.put(field.key, value);
+
+        if (field.processor == Processor.PDS) {
+            out.putAll(Iso8583.pdsToDict(message, pointer, fieldLength, encoding));
+        } else if (field.processor == Processor.DE43 && field.de43 != null) {
+            if (value instanceof String) {
+                field.de43.parse((String) value, out);
+            } else {
+                field.de43.parse(message, pointer, fieldLength, encoding, out);
+            }
+        }
+        return pointer + fieldLength;
+    }
+
+    private int parseField(FieldDescriptor field, byte[] message, int pointer, Charset encoding,
+                           FieldProjection projection, Map<String, Object> out) {
+        int fieldLength = fieldLength(field, message, pointer);
+        pointer += field.lengthSize;
+
+        switch (field.processor) {
+            case PDS:
+                if (projection.hasPds()) pdsToDict(message, pointer, fieldLength, encoding, projection, out);
+                break;
+            case ICC:
+                if (projection.hasIcc()) iccToDict(message, pointer, fieldLength, projection, out);
+                break;
+            case DE43:
+                if (projection.hasDe43() && field.de43 != null) {
+                    Map<String, String> de43 = new HashMap<>();
+                    field.de43.parse(message, pointer, fieldLength, encoding, de43);
+                    for (Map.Entry<String, String> entry : de43.entrySet()) {
+                        if (projection.includesDe43(entry.getKey())) out.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                break;
+            default:
+        }
+
+        if (projection.includesField(field.bit)) {
+            out.put(field.key, decode(field, message, pointer, fieldLength, encoding));
+        }
+        return pointer + fieldLength;
+    }
+
+    /**
+     * Length of the field data starting at pointer, checked against the message length.
+     */
+    private static int fieldLength(FieldDescriptor field, byte[] message, int pointer) {
+        int fieldLength = field.fieldLength;
+        if (field.lengthSize > 0) {
+            fieldLength = parseLength(field, message, pointer);
+            pointer += field.lengthSize;
+        }
+        if (pointer + fieldLength > message.length) {
+            throw new Iso8583DataError(
+                    String.format("Message data not correct length. DE%d needs %d bytes at %d, total %d",
+                            field.bit, fieldLength, pointer, message.length),
+                    message, null);
+        }
+        return fieldLength;
+    }
+
+    /**
+     * Extract the projected PDS tags straight from the field bytes, other tags are skipped by length.
+     */
+    private static void pdsToDict(byte[] message, int offset, int length, Charset encoding,
+                                  FieldProjection projection, Map<String, Object> out) {
+        int ptr = offset;
+        int end = offset + length;
+        while (ptr < end) {
+            int tag = ptr + 7 <= end ? digits(message, ptr, 4) : -1;
+            int len = tag >= 0 ? digits(message, ptr + 4, 3) : -1;
+            if (len < 0 || ptr + 7 + len > end) {
+                LOGGER.warn("Error parsing PDS data");
+                return;
+            }
+            if (projection.includesPds(tag)) {
+                out.put("PDS" + new String(message, ptr, 4, encoding), new String(message, ptr + 7, len, encoding));
+            }
+            ptr += 7 + len;
+        }
+    }
+
+    /**
+     * Parse ASCII or EBCDIC digits, -1 if any byte is not a digit.
+     */
+    static int digits(byte[] data, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            // ASCII and EBCDIC digits share the low nibble
+            int b = data[i] & 0xFF;
+            if ((b < '0' || b > '9') && (b < 0xF0 || b > 0xF9)) return -1;
+            value = value * 10 + (b & 0x0F);
+        }
+        return value;
+    }
+
+    /**
+     * ICC subfields in the projection, only the selected tag values are hex encoded.
+     */
+    private static void iccToDict(byte[] message, int offset, int length, FieldProjection projection, Map<String, Object> out) {
+        IccData icc = IccData.parse(message, offset, length);
+        if (projection.includesIcc("ICC_DATA")) out.put("ICC_DATA", Iso8583.binAsciiHexlify(message, offset, length, false));
+        for (int i = 0; i < icc.size(); i++) {
+            if (icc.depth(i) != 0) continue;
+            String key = "TAG" + IccData.tagName(icc.tag(i));
+            if (projection.includesIcc(key)) {
+                out.put(key, Iso8583.binAsciiHexlify(message, icc.valueOffset(i), icc.valueLength(i), true));
+            }
+        }
+    }
+
+    /**
+     * Decode a located field to its java type, as {@link #unpack} does.
+     */
+    static Object decode(FieldDescriptor field, byte[] message, int offset, int length, Charset encoding) {
+        if (field.processor == Processor.ICC) {
+            return Arrays.copyOfRange(message, offset, offset + length);
+        }
+        try {
+            switch (field.javaType) {
+                case LONG:
+                    return FieldCodecs.parseLong(message, offset, length, encoding);
+                case DATETIME:
+                    return decodeDateTime(field, message, offset, length, encoding);
+                default:
+                    return stringToType(new String(message, offset, length, encoding), field);
+            }
+        } catch (Exception e) {
+            throw new Iso8583DataError("Unable to convert DE" + field.bit, message, e);
+        }
+    }
+
+    /**
+     * Run the field processor for a located field, adding its subfields (PDS, TAG, DE43_) to out.
+     */
+    static void process(FieldDescriptor field, byte[] message, int offset, int length, Charset encoding,
+                        Map<String, ? super String> out) {
+        switch (field.processor) {
+            case PDS:
+                out.putAll(Iso8583.pdsToDict(message, offset, length, encoding));
+                break;
+            case ICC:
+                out.putAll(Iso8583.iccToDict(message, offset, length, field.config.fieldProcessorConfig()));
+                break;
+            case DE43:
+                if (field.de43 != null) field.de43.parse(message, offset, length, encoding, out);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Date times in the IPM patterns are read by digit position, values that are not a valid date are
+     * returned as the String without going through a parse exception. A yyMMdd pattern has no time so
+     * never gives a LocalDateTime, it stays a String as it always has.
+     */
+    private static Object decodeDateTime(FieldDescriptor field, byte[] message, int offset, int length, Charset encoding) {
+        switch (field.datePattern) {
+            case YYMMDDHHMMSS:
+                LocalDateTime value = FieldCodecs.parseDateTime(message, offset, length, encoding);
+                return value != null ? value : new String(message, offset, length, encoding);
+            case YYMMDD:
+                return new String(message, offset, length, encoding);
+            default:
+                return stringToType(new String(message, offset, length, encoding), field);
+        }
+    }
+
+    static int parseLength(FieldDescriptor field, byte[] message, int pointer) {
+        if (pointer + field.lengthSize > message.length) {
+            throw new Iso8583DataError("Invalid field length DE" + field.bit, message, null);
+        }
+        int length = digits(message, pointer, field.lengthSize);
+        if (length < 0) {
+            throw new Iso8583DataError("Invalid field length DE" + field.bit, message, null);
+        }
+        return length;
+    }
+
+    static Object stringToType(String val, FieldDescriptor field) {
+        switch (field.javaType) {
+            case LONG:
+                return Long.parseLong(val);
+            case DECIMAL:
+                return Double.parseDouble(val);
+            case DATETIME:
+                try {
+                    return LocalDateTime.parse(val, field.dateFormatter);
+                } catch (Exception e) {
+                    return val;
+                }
+            default:
+                return val;
+        }
+    }
+
+    // --- Pack ---
+
+    private static final ThreadLocal<byte[]> PACK_BUFFER = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    @FunctionalInterface
+    private interface ScratchPacker {
+        int pack(byte[] scratch, int end);
+    }
+
+    /**
+     * Pack into the thread's scratch array and copy to a buffer without an array, such as a direct
+     * buffer. The scratch array grows on overflow up to the space remaining in the buffer.
+     */
+    private static int packDirect(ByteBuffer buffer, ScratchPacker packer) {
+        byte[] scratch = PACK_BUFFER.get();
+        while (true) {
+            try {
+                int length = packer.pack(scratch, Math.min(scratch.length, buffer.remaining()));
+                buffer.put(scratch, 0, length);
+                return length;
+            } catch (BufferOverflowException e) {
+                if (scratch.length >= buffer.remaining()) throw e;
+                scratch = new byte[(int) Math.min((long) scratch.length * 2, buffer.remaining())];
+                PACK_BUFFER.set(scratch);
+            }
+        }
+    }
+
+    public byte[] pack(Map<String, Object> data, Charset encoding, boolean hexBitmap) {
+        byte[] buffer = PACK_BUFFER.get();
+        while (true) {
+            try {
+                int length = packInto(data, buffer, 0, encoding, hexBitmap);
+                return Arrays.copyOf(buffer, length);
+            } catch (BufferOverflowException e) {
+                buffer = new byte[buffer.length * 2];
+                PACK_BUFFER.set(buffer);
+            }
+        }
+    }
+
+    /**
+     * Pack into the buffer at its position, advancing the position.
+     *
+     * @return the encoded length
+     * @throws BufferOverflowException if the message does not fit, the buffer position is not changed
+     */
+    public int packInto(Map<String, Object> data, ByteBuffer buffer, Charset encoding, boolean hexBitmap) {
+        if (buffer.hasArray()) {
+            int length = packInto(data, buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.arrayOffset() + buffer.limit(), encoding, hexBitmap);
+            buffer.position(buffer.position() + length);
+            return length;
+        }
+        return packDirect(buffer, (scratch, end) -> packInto(data, scratch, 0, end, encoding, hexBitmap));
+    }
+
+    /**
+     * Pack into the array starting at offset.
+     *
+     * @return the encoded length
+     * @throws BufferOverflowException if the message does not fit in the array
+     */
+    public int packInto(Map<String, Object> data, byte[] buf, int offset, Charset encoding, boolean hexBitmap) {
+        return packInto(data, buf, offset, buf.length, encoding, hexBitmap);
+    }
+
+    private int packInto(Map<String, Object> data, byte[] buf, int offset, int end, Charset encoding, boolean hexBitmap) {
+        // Roll PDS values up into their DE fields, first chunk goes to the lowest PDS DE
+        PdsData.Rollup pds = PdsData.Rollup.of(data);
+        try {
+            int pos = putText((String) data.get("MTI"), encoding, buf, offset, end);
+            int bitmapPos = pos;
+            pos = checkSpace(pos, hexBitmap ? 32 : 16, end);
+
+            long primary = 1L << 63; // bit 1 flags the secondary bitmap
+            long secondary = 0;
+            for (int bit = 2; bit <= MAX_BIT; bit++) {
+                FieldDescriptor field = fields[bit];
+                int group = pdsGroup(field, pds);
+                Object val = group >= 0 ? null : data.get(field == null ? "DE" + bit : field.key);
+                if (val == null && group < 0 && field != null && field.processor == Processor.ICC) val = Iso8583.iccToDe(data);
+                if (val == null && group < 0) continue;
+
+                if (bit <= 64) primary |= 1L << (64 - bit); else secondary |= 1L << (128 - bit);
+                if (field == null) continue;
+
+                pos = group >= 0 ? writePds(field, pds, group, encoding, buf, pos, end)
+                        : writeValue(field, val, encoding, buf, pos, end);
+            }
+            return finishBitmap(primary, secondary, hexBitmap, encoding, buf, bitmapPos, pos) - offset;
+        } catch (BufferOverflowException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error packing message", e);
+        }
+    }
+
+    /**
+     * @return the PDS group written to the field, or -1 if the field takes its own value.
+     */
+    private int pdsGroup(FieldDescriptor field, PdsData.Rollup pds) {
+        if (pds == null || field == null || field.processor != Processor.PDS) return -1;
+        for (int i = 0; i < pds.groupCount && i < pdsBits.length; i++) {
+            if (pdsBits[i] == field.bit) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Pack a message into the buffer at its position, advancing the position.
+     *
+     * @return the encoded length
+     * @throws BufferOverflowException if the message does not fit, the buffer position is not changed
+     */
+    public int packInto(IsoMessage message, ByteBuffer buffer, Charset encoding, boolean hexBitmap) {
+        if (buffer.hasArray()) {
+            int length = packInto(message, buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.arrayOffset() + buffer.limit(), encoding, hexBitmap);
+            buffer.position(buffer.position() + length);
+            return length;
+        }
+        return packDirect(buffer, (scratch, end) -> packInto(message, scratch, 0, end, encoding, hexBitmap));
+    }
+
+    /**
+     * Pack a message into the array starting at offset. The output is the same as packing
+     * {@link IsoMessage#toMap()}, but numeric and unchanged fields are written without decoding them.
+     *
+     * @return the encoded length
+     * @throws BufferOverflowException if the message does not fit in the array
+     */
+    public int packInto(IsoMessage message, byte[] buf, int offset, Charset encoding, boolean hexBitmap) {
+        return packInto(message, buf, offset, buf.length, encoding, hexBitmap);
+    }
+
+    private int packInto(IsoMessage message, byte[] buf, int offset, int end, Charset encoding, boolean hexBitmap) {
+        PdsData.Rollup pds = PdsData.Rollup.of(message.subfieldMap());
+        // Latin-1 decodes and encodes every byte to itself, so unchanged text fields can be copied
+        boolean rawCopy = encoding.equals(message.rawEncoding()) && encoding.equals(StandardCharsets.ISO_8859_1);
+        try {
+            int pos = putText(message.getMti(), encoding, buf, offset, end);
+            int bitmapPos = pos;
+            pos = checkSpace(pos, hexBitmap ? 32 : 16, end);
+
+            long primary = 1L << 63; // bit 1 flags the secondary bitmap
+            long secondary = 0;
+            for (int bit = 2; bit <= MAX_BIT; bit++) {
+                FieldDescriptor field = fields[bit];
+                int group = pdsGroup(field, pds);
+                byte[] icc = null;
+                if (group < 0 && !message.has(bit) && field != null && field.processor == Processor.ICC) {
+                    icc = Iso8583.iccToDe(message.subfieldMap());
+                }
+                if (group < 0 && icc == null && !message.has(bit)) continue;
+
+                if (bit <= 64) primary |= 1L << (64 - bit); else secondary |= 1L << (128 - bit);
+                if (field == null) continue;
+
+                if (group >= 0) {
+                    pos = writePds(field, pds, group, encoding, buf, pos, end);
+                } else if (icc != null) {
+                    pos = writeValue(field, icc, encoding, buf, pos, end);
+                } else if (message.isLong(bit) && field.javaType == JavaType.LONG && field.isFixed()) {
+                    pos = putFixedNumber(field, message.getLong(bit), encoding, buf, pos, end);
+                } else if (message.isRaw(bit) && field.javaType == JavaType.LONG && field.isFixed()) {
+                    pos = putFixedNumber(field, message.getLong(bit), encoding, buf, pos, end);
+                } else if (message.isRaw(bit) && field.processor == Processor.ICC) {
+                    pos = putRaw(field, message.rawArray(), message.rawOffset(bit), message.rawLength(bit), encoding, buf, pos, end);
+                } else if (message.isRaw(bit) && rawCopy && field.javaType == JavaType.STRING && field.processor == Processor.NONE) {
+                    pos = putRaw(field, message.rawArray(), message.rawOffset(bit), message.rawLength(bit), encoding, buf, pos, end);
+                } else {
+                    pos = writeValue(field, message.get(bit), encoding, buf, pos, end);
+                }
+            }
+            return finishBitmap(primary, secondary, hexBitmap, encoding, buf, bitmapPos, pos) - offset;
+        } catch (BufferOverflowException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error packing message", e);
+        }
+    }
+
+    /**
+     * Pack a row of String values laid out by the mapping. The output is the same as packing the map
+     * of the row's non-empty values, with values converted for their field, see {@link IpmRowMapping}.
+     */
+    int packInto(IpmRowMapping mapping, String[] row, byte[] buf, int offset, int end, Charset encoding, boolean hexBitmap) {
+        PdsData.Rollup pds = PdsData.Rollup.of(mapping.pdsTags, mapping.pdsColumns, row);
+        try {
+            int pos = putText(IpmRowMapping.value(row, mapping.mtiColumn), encoding, buf, offset, end);
+            int bitmapPos = pos;
+            pos = checkSpace(pos, hexBitmap ? 32 : 16, end);
+
+            long primary = 1L << 63; // bit 1 flags the secondary bitmap
+            long secondary = 0;
+            for (int bit = 2; bit <= MAX_BIT; bit++) {
+                FieldDescriptor field = fields[bit];
+                int group = pdsGroup(field, pds);
+                String val = group >= 0 ? null : IpmRowMapping.value(row, mapping.bitColumns[bit]);
+                byte[] icc = null;
+                if (val == null && group < 0 && field != null && field.processor == Processor.ICC) icc = mapping.iccToDe(row);
+                if (val == null && group < 0 && icc == null) continue;
+
+                if (bit <= 64) primary |= 1L << (64 - bit); else secondary |= 1L << (128 - bit);
+                if (field == null) continue;
+
+                if (group >= 0) {
+                    pos = writePds(field, pds, group, encoding, buf, pos, end);
+                } else if (icc != null) {
+                    pos = writeValue(field, icc, encoding, buf, pos, end);
+                } else {
+                    pos = writeText(field, val, encoding, buf, pos, end);
+                }
+            }
+            return finishBitmap(primary, secondary, hexBitmap, encoding, buf, bitmapPos, pos) - offset;
+        } catch (BufferOverflowException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error packing message", e);
+        }
+    }
+
+    /**
+     * Write a text value converted for the field, as the CSV and JSON forms hold it.
+     */
+    private static int writeText(FieldDescriptor field, String val, Charset encoding, byte[] buf, int pos, int end) {
+        if (field.javaType == JavaType.LONG && field.isFixed() && val.length() <= field.fieldLength) {
+            // Digits are copied zero filled, the same bytes as parsing and writing the number
+            byte zero = FieldCodecs.digitZero(encoding);
+            int digits = zero == 0 ? -1 : 0;
+            while (digits >= 0 && digits < val.length() && val.charAt(digits) >= '0' && val.charAt(digits) <= '9') digits++;
+            if (digits == val.length()) {
+                int start = pos;
+                pos = checkSpace(pos, field.fieldLength, end);
+                int pad = field.fieldLength - digits;
+                Arrays.fill(buf, start, start + pad, zero);
+                for (int i = 0; i < digits; i++) buf[start + pad + i] = (byte) (zero + val.charAt(i) - '0');
+                return pos;
+            }
+        }
+        if (field.javaType == JavaType.DATETIME && val.indexOf('T') > 0) {
+            return writeValue(field, LocalDateTime.parse(val), encoding, buf, pos, end);
+        }
+        if (field.processor == Processor.ICC) {
+            return writeValue(field, Iso8583.hexStringToByteArray(val), encoding, buf, pos, end);
+        }
+        return writeValue(field, val, encoding, buf, pos, end);
+    }
+
+    /**
+     * Write a PDS group tag by tag, the same bytes as packing the group text.
+     */
+    private static int writePds(FieldDescriptor field, PdsData.Rollup pds, int group, Charset encoding,
+                                byte[] buf, int pos, int end) {
+        byte zero = FieldCodecs.digitZero(encoding);
+        if (field.isFixed() || zero == 0) return putField(field, pds.groupText(group), encoding, buf, pos, end);
+        pos = FieldCodecs.putDigits(pds.groupLength[group], field.lengthSize, zero, buf, pos, end);
+        for (int i = pds.groupStart[group]; i < pds.groupStart[group + 1]; i++) {
+            pos = FieldCodecs.putDigits(pds.tags[i], 4, zero, buf, pos, end);
+            pos = FieldCodecs.putDigits(pds.values[i].length(), 3, zero, buf, pos, end);
+            pos = putText(pds.values[i], encoding, buf, pos, end);
+        }
+        return pos;
+    }
+
+    private static int writeValue(FieldDescriptor field, Object val, Charset encoding, byte[] buf, int pos, int end) {
+        if (val instanceof byte[]) {
+            // Binary fields such as DE55 are written as is, fixed fields are zero filled
+            byte[] bytes = (byte[]) val;
+            if (field.lengthSize > 0) return putRaw(field, bytes, 0, bytes.length, encoding, buf, pos, end);
+            int length = Math.min(bytes.length, field.fieldLength);
+            checkSpace(pos, field.fieldLength, end);
+            System.arraycopy(bytes, 0, buf, pos, length);
+            Arrays.fill(buf, pos + length, pos + field.fieldLength, (byte) 0);
+            return pos + field.fieldLength;
+        }
+        if (val instanceof LocalDateTime) {
+            if (field.isFixed() && field.fieldLength == field.datePattern.length) {
+                int next = FieldCodecs.putDateTime((LocalDateTime) val, field.datePattern, encoding, buf, pos, end);
+                if (next >= 0) return next;
+            }
+            DateTimeFormatter formatter = field.dateFormatter != null
+                    ? field.dateFormatter : DateTimeFormatter.ofPattern(dateFormat(field));
+            return putField(field, ((LocalDateTime) val).format(formatter), encoding, buf, pos, end);
+        }
+        // Fixed length numbers are zero filled
+        if (field.javaType == JavaType.LONG && field.isFixed()) {
+            long number = val instanceof Long || val instanceof Integer || val instanceof Short || val instanceof Byte
+                    ? ((Number) val).longValue() : Long.parseLong(val.toString());
+            return putFixedNumber(field, number, encoding, buf, pos, end);
+        }
+        return putField(field, val.toString(), encoding, buf, pos, end);
+    }
+
+    private static int putField(FieldDescriptor field, String strVal, Charset encoding, byte[] buf, int pos, int end) {
+        if (field.lengthSize > 0) {
+            // Length is in characters as the python version does
+            pos = putNumber(strVal.length(), field.lengthSize, encoding, buf, pos, end);
+            return putText(strVal, encoding, buf, pos, end);
+        }
+        if (isLatin(encoding)) {
+            int length = Math.min(strVal.length(), field.fieldLength);
+            putText(strVal, 0, length, encoding, buf, pos, end);
+            return padSpaces(buf, pos + length, pos + field.fieldLength, end);
+        }
+        byte[] content = strVal.getBytes(encoding);
+        int length = Math.min(content.length, field.fieldLength);
+        checkSpace(pos, field.fieldLength, end);
+        System.arraycopy(content, 0, buf, pos, length);
+        return padSpaces(buf, pos + length, pos + field.fieldLength, end);
+    }
+
+    private static int putRaw(FieldDescriptor field, byte[] src, int srcOffset, int length, Charset encoding,
+                              byte[] buf, int pos, int end) {
+        if (field.lengthSize > 0) pos = putNumber(length, field.lengthSize, encoding, buf, pos, end);
+        checkSpace(pos, length, end);
+        System.arraycopy(src, srcOffset, buf, pos, length);
+        return pos + length;
+    }
+
+    /**
+     * Zero filled number in a fixed field, digits beyond the field length are cut from the right as the
+     * string padding does.
+     */
+    private static int putFixedNumber(FieldDescriptor field, long value, Charset encoding, byte[] buf, int pos, int end) {
+        int width = field.fieldLength;
+        byte zero = FieldCodecs.digitZero(encoding);
+        if (value < 0 || zero == 0) {
+            return putField(field, String.format("%0" + width + "d", value), encoding, buf, pos, end);
+        }
+        int digits = FieldCodecs.digitCount(value);
+        for (int i = digits; i > width; i--) value /= 10;
+        return FieldCodecs.putDigits(value, width, zero, buf, pos, end);
+    }
+
+    /**
+     * Write a non-negative number zero padded to width, wider numbers are written in full.
+     */
+    private static int putNumber(long value, int width, Charset encoding, byte[] buf, int pos, int end) {
+        byte zero = FieldCodecs.digitZero(encoding);
+        if (zero == 0) {
+            StringBuilder sb = new StringBuilder(width);
+            for (int i = FieldCodecs.digitCount(value); i < width; i++) sb.append('0');
+            return putText(sb.append(value).toString(), encoding, buf, pos, end);
+        }
+        return FieldCodecs.putDigits(value, width, zero, buf, pos, end);
+    }
+
+    private static int putText(String s, Charset encoding, byte[] buf, int pos, int end) {
+        if (s == null) return pos;
+        return putText(s, 0, s.length(), encoding, buf, pos, end);
+    }
+
+    private static int putText(String s, int from, int to, Charset encoding, byte[] buf, int pos, int end) {
+        if (isLatin(encoding)) {
+            char max = encoding.equals(StandardCharsets.ISO_8859_1) ? '\u00ff' : '\u007f';
+            checkSpace(pos, to - from, end);
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                buf[pos++] = c <= max ? (byte) c : (byte) '?';
+            }
+            return pos;
+        }
+        byte[] bytes = s.substring(from, to).getBytes(encoding);
+        checkSpace(pos, bytes.length, end);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    private static int padSpaces(byte[] buf, int from, int to, int end) {
+        checkSpace(from, to - from, end);
+        Arrays.fill(buf, from, to, (byte) ' ');
+        return to;
+    }
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Write the bitmap into the space reserved for it. In compact mode a bitmap without secondary
+     * fields is written as the primary word only and the field data is moved up.
+     *
+     * @return the end of the message
+     */
+    private int finishBitmap(long primary, long secondary, boolean hexBitmap, Charset encoding, byte[] buf, int bitmapPos, int end) {
+        if (compactBitmap && secondary == 0) {
+            int wordSize = hexBitmap ? 16 : 8;
+            int dataPos = bitmapPos + 2 * wordSize;
+            System.arraycopy(buf, dataPos, buf, dataPos - wordSize, end - dataPos);
+            putBitmapWord(primary & ~(1L << 63), hexBitmap, encoding, buf, bitmapPos);
+            return end - wordSize;
+        }
+        putBitmapWord(primary, hexBitmap, encoding, buf, bitmapPos);
+        putBitmapWord(secondary, hexBitmap, encoding, buf, bitmapPos + (hexBitmap ? 16 : 8));
+        return end;
+    }
+
+    private static void putBitmapWord(long word, boolean hexBitmap, Charset encoding, byte[] buf, int pos) {
+        if (!hexBitmap) {
+            BitUtils.putLong(buf, pos, word);
+        } else if (isLatin(encoding)) {
+            for (int i = 15; i >= 0; i--) {
+                buf[pos + i] = HEX_DIGITS[(int) word & 0x0F];
+                word >>>= 4;
+            }
+        } else {
+            byte[] hex = String.format("%016x", word).getBytes(encoding);
+            System.arraycopy(hex, 0, buf, pos, hex.length);
+        }
+    }
+
+    private static int checkSpace(int pos, int length, int end) {
+        if (pos + length > end) throw new BufferOverflowException();
+        return pos + length;
+    }
+
+    /**
+     * Encodings where a char up to 0xff (or 0x7f) is written as that byte.
+     */
+    private static boolean isLatin(Charset encoding) {
+        return encoding == StandardCharsets.ISO_8859_1 || encoding == StandardCharsets.US_ASCII
+                || encoding.equals(StandardCharsets.ISO_8859_1) || encoding.equals(StandardCharsets.US_ASCII);
+    }
+
+    private static String dateFormat(FieldDescriptor field) {
+        String fmt = field.config.fieldDateFormat();
+        return fmt == null ? "yyMMdd" : fmt;
+    }
+}
@@ -6,6 +6,13 @@ import static com.charisad.cardutil.BitConfig.FieldType.*;
 
 
 public class Config {
+    /**
+     * DE43 name/location layout as a regex, kept for configs written against it. The codec splits this
+     * layout without a regex, see {@link De43Parser}.
+     */
+    public static final String DE43_PATTERN = "(?<DE43NAME>.+?) *\\\\(?<DE43ADDRESS>.+?) *\\\\(?<DE43SUBURB>.+?) *\\\\"
+            + "(?<DE43POSTCODE>.{10})(?<DE43STATE>.{3})(?<DE43COUNTRY>\\\\S{3})$";
+
     public static final Map<Integer, BitConfig> DEFAULT_BIT_CONFIG = new HashMap<>();
 
     static {
@@ -61,11 +68,7 @@ public class Config {
         DEFAULT_BIT_CONFIG.put(43, BitConfig.builder()
                 .fieldName("Card acceptor name/location").fieldType(LLVAR).fieldLength(0)
                 .fieldProcessor("DE43")
-                // Simplified regex for Java, avoiding named groups if not strictly supported in same way, 
-                // but Java 7+ supports named groups (?<name>...). configuration string format might need adjustment in implementation.
-                // Keeping it as string for now.
-                .fieldProcessorConfig("(?<DE43NAME>.+?) *\\\\(?<DE43ADDRESS>.+?) *\\\\(?<DE43SUBURB>.+?) *\\\\"
-                        + "(?<DE43POSTCODE>.{10})(?<DE43STATE>.{3})(?<DE43COUNTRY>\\\\S{3})$")
+                .fieldProcessorConfig(DE43_PATTERN)
                 .build());
         DEFAULT_BIT_CONFIG.put(48, BitConfig.builder()
                 .fieldName("Additional data").fieldType(LLLVAR).fieldLength(0).fieldProcessor("PDS").build());
@@ -0,0 +1,194 @@
+package com.charisad.cardutil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits DE43 card acceptor name/location into DE43_NAME, DE43_ADDRESS, DE43_SUBURB, DE43_POSTCODE,
+ * DE43_STATE and DE43_COUNTRY.
+ * <p>
+ * The standard layout is name\address\suburb\ followed by a 10 character postcode, 3 character
+ * state and 3 character country. It is split in a single pass with no regex when the field processor
+ * config is empty or is {@link Config#DE43_PATTERN}. Any other config is used as a regex with named
+ * groups as before.
+ * <p>
+ * Values that do not fit the layout give no subfields. The config can start with an on_error option,
+ * on its own or followed by ; and the regex (on_error=COUNT;(?&lt;DE43NAME&gt;...)). With on_error=COUNT
+ * the values are counted in {@link #errorCount()}, with on_error=WARN they are also logged.
+ */
+public final class De43Parser {
+    private static final Logger LOGGER = LoggerFactory.getLogger(De43Parser.class);
+    private static final String[] GROUPS = {"DE43NAME", "DE43ADDRESS", "DE43SUBURB", "DE43POSTCODE", "DE43STATE", "DE43COUNTRY"};
+    private static final String[] KEYS = {"DE43_NAME", "DE43_ADDRESS", "DE43_SUBURB", "DE43_POSTCODE", "DE43_STATE", "DE43_COUNTRY"};
+    // Postcode, state and country after the last separator
+    private static final int TAIL = 16;
+
+    public enum OnError {
+        IGNORE, COUNT, WARN
+    }
+
+    private final Pattern pattern;
+    private final boolean[] patternGroups = new boolean[GROUPS.length];
+    private final OnError onError;
+    private final LongAdder errors = new LongAdder();
+
+    private De43Parser(Pattern pattern, OnError onError) {
+        this.pattern = pattern;
+        this.onError = onError;
+        if (pattern != null) {
+            for (int i = 0; i < GROUPS.length; i++) {
+                patternGroups[i] = pattern.pattern().contains("(?<" + GROUPS[i] + ">");
+            }
+        }
+    }
+
+    /**
+     * Parser for a DE43 field processor config, an optional on_error option and a regex.
+     *
+     * @throws IllegalArgumentException if the on_error option is not one of {@link OnError}
+     * @throws java.util.regex.PatternSyntaxException if the regex is not valid
+     */
+    public static De43Parser of(String config) {
+        OnError onError = OnError.IGNORE;
+        if (config != null && config.startsWith("on_error=")) {
+            int end = config.indexOf(';');
+            onError = OnError.valueOf(config.substring(9, end < 0 ? config.length() : end).trim().toUpperCase());
+            config = end < 0 ? null : config.substring(end + 1);
+        }
+        return of(config, onError);
+    }
+
+    /**
+     * @param pattern regex with named groups, or null or {@link Config#DE43_PATTERN} for the built in splitter
+     */
+    public static De43Parser of(String pattern, OnError onError) {
+        if (pattern == null || pattern.isEmpty() || pattern.equals(Config.DE43_PATTERN)) {
+            return new De43Parser(null, onError);
+        }
+        return new De43Parser(Pattern.compile(pattern), onError);
+    }
+
+    /**
+     * @return true if the built in splitter is used rather than a regex.
+     */
+    public boolean isSplitter() {
+        return pattern == null;
+    }
+
+    /**
+     * @return number of values that did not fit the layout, counted with on_error=COUNT or WARN, since
+     * the parser was created.
+     */
+    public long errorCount() {
+        return errors.sum();
+    }
+
+    public Map<String, String> parse(String data) {
+        Map<String, String> map = new HashMap<>();
+        parse(data, map);
+        return map;
+    }
+
+    public void parse(String data, Map<String, ? super String> out) {
+        if (pattern != null) {
+            Matcher m = pattern.matcher(data);
+            if (!m.matches()) {
+                error(data);
+                return;
+            }
+            for (int i = 0; i < GROUPS.length; i++) {
+                if (!patternGroups[i]) continue;
+                String v = m.group(GROUPS[i]);
+                if (v != null) out.put(KEYS[i], v.trim());
+            }
+            return;
+        }
+        int n = data.length();
+        int tail = n - TAIL;
+        int first = tail > 5 ? data.indexOf('\\', 1) : -1;
+        int second = first > 0 ? data.indexOf('\\', first + 2) : -1;
+        // Suburb needs at least one character before the separator ahead of the tail
+        if (second < 0 || second + 2 > tail - 1 || data.charAt(tail - 1) != '\\' || !country(data, tail + 13)) {
+            error(data);
+            return;
+        }
+        out.put(KEYS[0], data.substring(0, first).trim());
+        out.put(KEYS[1], data.substring(first + 1, second).trim());
+        out.put(KEYS[2], data.substring(second + 1, tail - 1).trim());
+        out.put(KEYS[3], data.substring(tail, tail + 10).trim());
+        out.put(KEYS[4], data.substring(tail + 10, tail + 13).trim());
+        out.put(KEYS[5], data.substring(tail + 13));
+    }
+
+    /**
+     * Split the field bytes. Latin-1 and ASCII fields are split on the bytes with one String per
+     * subfield, other encodings are decoded first.
+     */
+    public void parse(byte[] data, int offset, int length, Charset encoding, Map<String, ? super String> out) {
+        if (pattern != null || !(encoding.equals(StandardCharsets.ISO_8859_1) || encoding.equals(StandardCharsets.US_ASCII))) {
+            parse(new String(data, offset, length, encoding), out);
+            return;
+        }
+        int end = offset + length;
+        int tail = end - TAIL;
+        int first = tail - offset > 5 ? indexOf(data, offset + 1, tail) : -1;
+        int second = first > 0 ? indexOf(data, first + 2, tail) : -1;
+        if (second < 0 || second + 2 > tail - 1 || data[tail - 1] != '\\' || !country(data, tail + 13)) {
+            error(new String(data, offset, length, encoding));
+            return;
+        }
+        out.put(KEYS[0], trimmed(data, offset, first, encoding));
+        out.put(KEYS[1], trimmed(data, first + 1, second, encoding));
+        out.put(KEYS[2], trimmed(data, second + 1, tail - 1, encoding));
+        out.put(KEYS[3], trimmed(data, tail, tail + 10, encoding));
+        out.put(KEYS[4], trimmed(data, tail + 10, tail + 13, encoding));
+        out.put(KEYS[5], new String(data, tail + 13, 3, encoding));
+    }
+
+    private void error(String data) {
+        if (onError == OnError.IGNORE) return;
+        errors.increment();
+        if (onError == OnError.WARN) LOGGER.warn("DE43 does not match the name/location layout: {}", data);
+    }
+
+    private static int indexOf(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == '\\') return i;
+        }
+        return -1;
+    }
+
+    // Same as String.trim, bytes are Latin-1 code points
+    private static String trimmed(byte[] data, int from, int to, Charset encoding) {
+        while (from < to && (data[from] & 0xFF) <= ' ') from++;
+        while (to > from && (data[to - 1] & 0xFF) <= ' ') to--;
+        return new String(data, from, to - from, encoding);
+    }
+
+    private static boolean country(String data, int from) {
+        for (int i = from; i < from + 3; i++) {
+            if (isSpace(data.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean country(byte[] data, int from) {
+        for (int i = from; i < from + 3; i++) {
+            if (isSpace((char) (data[i] & 0xFF))) return false;
+        }
+        return true;
+    }
+
+    // Regex \s
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,195 @@
+package com.charisad.cardutil;
+
+import java.nio.BufferOverflowException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+
+/**
+ * Byte level codecs for fixed length numeric and date fields.
+ * <p>
+ * Numbers are parsed from and written to the record bytes as ASCII or EBCDIC digits without building
+ * Strings. Dates in the yyMMdd and yyMMddHHmmss patterns used by IPM (DE12, DE73 and the PDS dates)
+ * are read by fixed position digit extraction, invalid dates are reported by return value rather than
+ * by exception.
+ */
+public final class FieldCodecs {
+    private static final byte NO_DIGITS = 0;
+    private static final byte EBCDIC_ZERO = (byte) 0xF0;
+
+    private record DigitZero(Charset encoding, byte zero) {
+    }
+
+    // Last charset checked by digitZero, records in a file almost always share one encoding
+    private static volatile DigitZero lastDigitZero = new DigitZero(StandardCharsets.ISO_8859_1, (byte) '0');
+
+    /**
+     * Date patterns with a fixed position parser, anything else goes through DateTimeFormatter.
+     */
+    public enum DatePattern {
+        YYMMDD(6), YYMMDDHHMMSS(12), OTHER(-1);
+
+        final int length;
+
+        DatePattern(int length) {
+            this.length = length;
+        }
+
+        public static DatePattern of(String format) {
+            if ("yyMMdd".equals(format)) return YYMMDD;
+            if ("yyMMddHHmmss".equals(format)) return YYMMDDHHMMSS;
+            return OTHER;
+        }
+    }
+
+    private FieldCodecs() {
+    }
+
+    /**
+     * The byte for digit 0 in the encoding, '0' for ASCII compatible encodings, 0xF0 for EBCDIC, or 0
+     * when digits are not a contiguous single byte run.
+     */
+    public static byte digitZero(Charset encoding) {
+        DigitZero cached = lastDigitZero;
+        if (cached.encoding == encoding) return cached.zero;
+        byte[] digits = "0123456789".getBytes(encoding);
+        byte zero = NO_DIGITS;
+        if (digits.length == 10) {
+            zero = digits[0];
+            for (int i = 1; i < 10; i++) {
+                if (digits[i] != (byte) (digits[0] + i)) zero = NO_DIGITS;
+            }
+            if (zero != '0' && zero != EBCDIC_ZERO) zero = NO_DIGITS;
+        }
+        lastDigitZero = new DigitZero(encoding, zero);
+        return zero;
+    }
+
+    // --- Numbers ---
+
+    /**
+     * Parse unsigned digits in the given encoding.
+     *
+     * @return the value, or -1 if the range is empty, too long or has a non digit byte
+     */
+    public static long parseDigits(byte[] data, int offset, int length, byte zero) {
+        if (length <= 0 || length > 18 || zero == NO_DIGITS) return -1;
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = data[i] - zero;
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parse a numeric field. Plain digits are read straight from the bytes, anything else (signs,
+     * spaces, very long values) falls back to {@link Long#parseLong} so errors behave as before.
+     *
+     * @throws NumberFormatException if the field is not a number
+     */
+    public static long parseLong(byte[] data, int offset, int length, Charset encoding) {
+        long value = parseDigits(data, offset, length, digitZero(encoding));
+        if (value >= 0) return value;
+        return Long.parseLong(new String(data, offset, length, encoding));
+    }
+
+    public static int digitCount(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Write a non-negative number zero padded to width, wider numbers are written in full.
+     *
+     * @return position after the number
+     * @throws BufferOverflowException if the number would pass end
+     */
+    public static int putDigits(long value, int width, byte zero, byte[] buf, int pos, int end) {
+        int length = Math.max(digitCount(value), width);
+        if (pos + length > end) throw new BufferOverflowException();
+        int p = pos + length;
+        do {
+            buf[--p] = (byte) (zero + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (p > pos) buf[--p] = zero;
+        return pos + length;
+    }
+
+    // --- Dates ---
+
+    /**
+     * Parse a yyMMddHHmmss date time the way DateTimeFormatter does in its default smart mode: days past
+     * the end of the month are moved back to the last day and 24:00:00 is midnight of the next day.
+     *
+     * @return the date time, or null if the bytes are not a valid date time
+     */
+    public static LocalDateTime parseDateTime(byte[] data, int offset, int length, Charset encoding) {
+        if (length != 12) return null;
+        byte zero = digitZero(encoding);
+        int hour = (int) parseDigits(data, offset + 6, 2, zero);
+        int minute = (int) parseDigits(data, offset + 8, 2, zero);
+        int second = (int) parseDigits(data, offset + 10, 2, zero);
+        if (hour < 0 || hour > 24 || minute < 0 || minute > 59 || second < 0 || second > 59) return null;
+        if (hour == 24 && (minute != 0 || second != 0)) return null;
+        LocalDate date = parseDate(data, offset, 6, encoding);
+        if (date == null) return null;
+        if (hour == 24) return date.plusDays(1).atStartOfDay();
+        return LocalDateTime.of(date.getYear(), date.getMonthValue(), date.getDayOfMonth(), hour, minute, second);
+    }
+
+    /**
+     * Parse a yyMMdd date, years are 2000-2099 as with the yy pattern.
+     *
+     * @return the date, or null if the bytes are not a valid date
+     */
+    public static LocalDate parseDate(byte[] data, int offset, int length, Charset encoding) {
+        if (length != 6) return null;
+        byte zero = digitZero(encoding);
+        int year = (int) parseDigits(data, offset, 2, zero);
+        int month = (int) parseDigits(data, offset + 2, 2, zero);
+        int day = (int) parseDigits(data, offset + 4, 2, zero);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31) return null;
+        int lastDay = YearMonth.of(2000 + year, month).lengthOfMonth();
+        return LocalDate.of(2000 + year, month, Math.min(day, lastDay));
+    }
+
+    /**
+     * Parse a yyMMdd date held in a String, such as a PDS value.
+     *
+     * @return the date, or null if the value is not a valid date
+     */
+    public static LocalDate parseDate(String value) {
+        if (value == null || value.length() != 6) return null;
+        return parseDate(value.getBytes(StandardCharsets.ISO_8859_1), 0, 6, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Write a date time as yyMMdd or yyMMddHHmmss digits.
+     *
+     * @return position after the date, or -1 if the pattern or encoding has no fixed position writer
+     * @throws BufferOverflowException if the date would pass end
+     */
+    public static int putDateTime(LocalDateTime value, DatePattern pattern, Charset encoding, byte[] buf, int pos, int end) {
+        byte zero = digitZero(encoding);
+        if (pattern == DatePattern.OTHER || zero == NO_DIGITS || value.getYear() < 0) return -1;
+        if (pos + pattern.length > end) throw new BufferOverflowException();
+        pos = putDigits(value.getYear() % 100, 2, zero, buf, pos, end);
+        pos = putDigits(value.getMonthValue(), 2, zero, buf, pos, end);
+        pos = putDigits(value.getDayOfMonth(), 2, zero, buf, pos, end);
+        if (pattern == DatePattern.YYMMDDHHMMSS) {
+            pos = putDigits(value.getHour(), 2, zero, buf, pos, end);
+            pos = putDigits(value.getMinute(), 2, zero, buf, pos, end);
+            pos = putDigits(value.getSecond(), 2, zero, buf, pos, end);
+        }
+        return pos;
+    }
+}
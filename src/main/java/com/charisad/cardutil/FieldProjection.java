@@ -0,0 +1,83 @@
+package com.charisad.cardutil;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Set of fields to decode when unpacking, given as {@link Iso8583#unpack} map keys.
+ * <p>
+ * DE keys (DE4) select whole fields. PDS keys (PDS0023), ICC keys (TAG9F26, ICC_DATA) and DE43 keys
+ * (DE43_NAME) select subfields, the owning field processor only runs when one of its subfields is
+ * selected. Fields outside the projection are skipped using their length prefix only. MTI is always
+ * returned.
+ */
+public final class FieldProjection {
+    private final boolean[] bits = new boolean[CompiledIso8583Codec.MAX_BIT + 1];
+    private final int[] pdsTags;
+    private final Set<String> iccKeys = new HashSet<>();
+    private final Set<String> de43Keys = new HashSet<>();
+
+    private FieldProjection(Collection<String> keys) {
+        int[] tags = new int[keys.size()];
+        int tagCount = 0;
+        for (String key : keys) {
+            if (key.startsWith("PDS")) {
+                int tag = PdsData.tagOf(key, 3);
+                if (tag < 0) throw new IllegalArgumentException("Invalid field in projection: " + key);
+                tags[tagCount++] = tag;
+            } else if (key.startsWith("TAG") || "ICC_DATA".equals(key)) {
+                iccKeys.add(key);
+            } else if (key.startsWith("DE43_")) {
+                de43Keys.add(key);
+            } else if (key.startsWith("DE")) {
+                int bit = PdsData.tagOf(key, 2);
+                if (bit < 1 || bit > CompiledIso8583Codec.MAX_BIT) {
+                    throw new IllegalArgumentException("Invalid field in projection: " + key);
+                }
+                bits[bit] = true;
+            } else if (!"MTI".equals(key)) {
+                throw new IllegalArgumentException("Invalid field in projection: " + key);
+            }
+        }
+        pdsTags = Arrays.copyOf(tags, tagCount);
+        Arrays.sort(pdsTags);
+    }
+
+    public static FieldProjection of(String... keys) {
+        return new FieldProjection(Arrays.asList(keys));
+    }
+
+    public static FieldProjection of(Collection<String> keys) {
+        return new FieldProjection(keys);
+    }
+
+    public boolean includesField(int bit) {
+        return bit >= 1 && bit <= CompiledIso8583Codec.MAX_BIT && bits[bit];
+    }
+
+    public boolean includesPds(int tag) {
+        return Arrays.binarySearch(pdsTags, tag) >= 0;
+    }
+
+    boolean hasPds() {
+        return pdsTags.length > 0;
+    }
+
+    boolean includesIcc(String key) {
+        return iccKeys.contains(key);
+    }
+
+    boolean hasIcc() {
+        return !iccKeys.isEmpty();
+    }
+
+    boolean includesDe43(String key) {
+        return de43Keys.contains(key);
+    }
+
+    boolean hasDe43() {
+        return !de43Keys.isEmpty();
+    }
+}
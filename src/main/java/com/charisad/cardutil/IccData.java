@@ -0,0 +1,276 @@
+package com.charisad.cardutil;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BER-TLV index over ICC system related data (DE55).
+ * <p>
+ * Parsing records the tag, value offset and value length of each data object without copying the
+ * field. Tags of any length, long form lengths (0x81-0x83) and constructed templates are supported,
+ * the children of a constructed tag are indexed after it at depth + 1. Zero bytes between objects are
+ * skipped as padding. Values are only hex encoded or copied when asked for.
+ * <p>
+ * Tags are held as ints with the tag bytes big-endian, e.g. 0x9F26 for Application Cryptogram.
+ */
+public final class IccData {
+    private static final int MAX_DEPTH = 8;
+
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+    private int count;
+    private int[] tags = new int[16];
+    private int[] valueOffsets = new int[16];
+    private int[] valueLengths = new int[16];
+    private byte[] depths = new byte[16];
+    private final boolean complete;
+
+    private IccData(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        complete = index(offset, offset + length, 0);
+    }
+
+    public static IccData parse(byte[] data) {
+        return new IccData(data, 0, data.length);
+    }
+
+    /**
+     * Index the data objects in data[offset, offset + length). The bytes are not copied and must not
+     * change while the index is in use.
+     */
+    public static IccData parse(byte[] data, int offset, int length) {
+        return new IccData(data, offset, length);
+    }
+
+    private boolean index(int pos, int end, int depth) {
+        while (pos < end) {
+            if (data[pos] == 0) {
+                pos++;
+                continue;
+            }
+            // Tag, more bytes follow a first byte of xxx11111 while bit 8 is set
+            int first = data[pos++] & 0xFF;
+            int tag = first;
+            if ((first & 0x1F) == 0x1F) {
+                int b;
+                int tagBytes = 1;
+                do {
+                    if (pos >= end || tagBytes == 4) return false;
+                    b = data[pos++] & 0xFF;
+                    tag = tag << 8 | b;
+                    tagBytes++;
+                } while ((b & 0x80) != 0);
+            }
+            // Length, short form or 0x8n followed by n length bytes
+            if (pos >= end) return false;
+            int valueLength = data[pos++] & 0xFF;
+            if ((valueLength & 0x80) != 0) {
+                // 0x80 (indefinite length) and more than 3 length bytes are malformed
+                int lengthBytes = valueLength & 0x7F;
+                if (lengthBytes == 0 || lengthBytes > 3 || pos + lengthBytes > end) return false;
+                valueLength = 0;
+                for (int i = 0; i < lengthBytes; i++) valueLength = valueLength << 8 | (data[pos++] & 0xFF);
+            }
+            if (valueLength > end - pos) return false;
+
+            add(tag, pos, valueLength, depth);
+            if ((first & 0x20) != 0 && depth < MAX_DEPTH && !index(pos, pos + valueLength, depth + 1)) {
+                return false;
+            }
+            pos += valueLength;
+        }
+        return true;
+    }
+
+    private void add(int tag, int valueOffset, int valueLength, int depth) {
+        if (count == tags.length) {
+            tags = Arrays.copyOf(tags, count * 2);
+            valueOffsets = Arrays.copyOf(valueOffsets, count * 2);
+            valueLengths = Arrays.copyOf(valueLengths, count * 2);
+            depths = Arrays.copyOf(depths, count * 2);
+        }
+        tags[count] = tag;
+        valueOffsets[count] = valueOffset;
+        valueLengths[count] = valueLength;
+        depths[count] = (byte) depth;
+        count++;
+    }
+
+    /**
+     * @return false if parsing stopped at a malformed data object, the objects before it are indexed.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return number of indexed data objects, nested ones included.
+     */
+    public int size() {
+        return count;
+    }
+
+    public int tag(int index) {
+        return tags[index];
+    }
+
+    public int depth(int index) {
+        return depths[index];
+    }
+
+    public boolean isConstructed(int index) {
+        return (firstTagByte(tags[index]) & 0x20) != 0;
+    }
+
+    /**
+     * @return offset of the value in {@link #array()}.
+     */
+    public int valueOffset(int index) {
+        return valueOffsets[index];
+    }
+
+    public int valueLength(int index) {
+        return valueLengths[index];
+    }
+
+    public byte[] array() {
+        return data;
+    }
+
+    /**
+     * @return index of the first data object with the tag at any depth, or -1.
+     */
+    public int indexOf(int tag) {
+        for (int i = 0; i < count; i++) {
+            if (tags[i] == tag) return i;
+        }
+        return -1;
+    }
+
+    public boolean has(int tag) {
+        return indexOf(tag) >= 0;
+    }
+
+    /**
+     * @return copy of the tag value, or null when absent.
+     */
+    public byte[] getBytes(int tag) {
+        int i = indexOf(tag);
+        return i < 0 ? null : Arrays.copyOfRange(data, valueOffsets[i], valueOffsets[i] + valueLengths[i]);
+    }
+
+    /**
+     * @return tag value as upper case hex, or null when absent.
+     */
+    public String getHex(int tag) {
+        int i = indexOf(tag);
+        return i < 0 ? null : Iso8583.binAsciiHexlify(data, valueOffsets[i], valueLengths[i], true);
+    }
+
+    /**
+     * @param tag tag as hex, e.g. "9F26"
+     */
+    public String getHex(String tag) {
+        return getHex(Integer.parseUnsignedInt(tag, 16));
+    }
+
+    /**
+     * The {@link Iso8583#unpack} subfields: ICC_DATA with the whole field as lower case hex, and a
+     * TAGxxxx key with upper case hex for each top level data object.
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new HashMap<>();
+        map.put("ICC_DATA", Iso8583.binAsciiHexlify(data, offset, length, false));
+        for (int i = 0; i < count; i++) {
+            if (depths[i] != 0) continue;
+            map.put("TAG" + tagName(tags[i]), Iso8583.binAsciiHexlify(data, valueOffsets[i], valueLengths[i], true));
+        }
+        return map;
+    }
+
+    /**
+     * @return tag as upper case hex, e.g. 9F26.
+     */
+    public static String tagName(int tag) {
+        int bytes = tagBytes(tag);
+        String hex = Integer.toHexString(tag).toUpperCase();
+        StringBuilder sb = new StringBuilder(bytes * 2);
+        for (int i = hex.length(); i < bytes * 2; i++) sb.append('0');
+        return sb.append(hex).toString();
+    }
+
+    private static int tagBytes(int tag) {
+        if ((tag & 0xFFFFFF00) == 0) return 1;
+        if ((tag & 0xFFFF0000) == 0) return 2;
+        if ((tag & 0xFF000000) == 0) return 3;
+        return 4;
+    }
+
+    private static int firstTagByte(int tag) {
+        return tag >>> ((tagBytes(tag) - 1) * 8) & 0xFF;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Encodes data objects in the order they are added, lengths over 127 use the long form.
+     */
+    public static final class Builder {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        public Builder add(int tag, byte[] value) {
+            return add(tag, value, 0, value.length);
+        }
+
+        public Builder add(int tag, byte[] value, int offset, int length) {
+            int bytes = tagBytes(tag);
+            ensure(bytes + 4 + length);
+            for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) buf[size++] = (byte) (tag >>> shift);
+            if (length < 0x80) {
+                buf[size++] = (byte) length;
+            } else if (length <= 0xFF) {
+                buf[size++] = (byte) 0x81;
+                buf[size++] = (byte) length;
+            } else if (length <= 0xFFFF) {
+                buf[size++] = (byte) 0x82;
+                buf[size++] = (byte) (length >>> 8);
+                buf[size++] = (byte) length;
+            } else {
+                buf[size++] = (byte) 0x83;
+                buf[size++] = (byte) (length >>> 16);
+                buf[size++] = (byte) (length >>> 8);
+                buf[size++] = (byte) length;
+            }
+            System.arraycopy(value, offset, buf, size, length);
+            size += length;
+            return this;
+        }
+
+        /**
+         * @param tag   tag as hex, e.g. "9F26"
+         * @param value value as hex
+         */
+        public Builder add(String tag, String value) {
+            return add(Integer.parseUnsignedInt(tag, 16), Iso8583.hexStringToByteArray(value));
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+
+        public int length() {
+            return size;
+        }
+
+        public byte[] build() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+}
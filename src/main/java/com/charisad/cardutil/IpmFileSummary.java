@@ -0,0 +1,275 @@
+package com.charisad.cardutil;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Control totals of an IPM file, accumulated record by record during any read pass.
+ * <p>
+ * Counts are kept by MTI and function code (DE24), DE4, DE5 and DE6 are summed by their currency
+ * (DE49, DE50 and DE51), and the first and last message number (DE71) are kept, all in primitive
+ * arrays. Raw records are fed with {@link MciIpm.IpmReader#forEachRecord} and only locate the fields
+ * used, decoded records are fed with {@link #accept(Map)}.
+ * <p>
+ * {@link #reconcile()} checks the file against its 1644 header (DE24 697) and trailer (DE24 695): the
+ * trailer file message count (PDS0306) counts every record up to and including the trailer, and the
+ * file amount checksum (PDS0301) is the sum of DE4 over those records. The file ID (PDS0105) of the
+ * header and trailer must match.
+ */
+public final class IpmFileSummary implements MciIpm.RecordHandler {
+    public static final int FILE_HEADER = 697;
+    public static final int FILE_TRAILER = 695;
+    private static final int CONTROL_MTI = 1644;
+    private static final long CHECKSUM_MODULUS = 10_000_000_000_000_000L;
+
+    private final CompiledIso8583Codec codec;
+    private final Charset encoding;
+    private final byte zero;
+
+    private long records;
+    private long invalidRecords;
+    // MTI and function code as mti << 10 | (function + 1), function -1 when DE24 is absent
+    private int typeCount;
+    private int[] types = new int[16];
+    private long[] typeCounts = new long[16];
+    // DE4, DE5 and DE6 totals by currency code, -1 when the currency is absent
+    private int currencyCount;
+    private int[] currencies = new int[8];
+    private long[][] amounts = new long[3][8];
+    private long checksum;
+    private long firstMessageNumber = -1;
+    private long lastMessageNumber = -1;
+
+    private boolean header;
+    private String headerFileId;
+    private long trailerRecord = -1;
+    private String trailerFileId;
+    private long trailerCount = -1;
+    private long trailerChecksum = -1;
+    private long checksumAtTrailer;
+
+    public IpmFileSummary() {
+        this(StandardCharsets.ISO_8859_1, null);
+    }
+
+    public IpmFileSummary(Charset encoding, Map<Integer, BitConfig> config) {
+        this.codec = CompiledIso8583Codec.of(config);
+        this.encoding = encoding;
+        this.zero = FieldCodecs.digitZero(encoding);
+    }
+
+    /**
+     * Add a raw record, see {@link MciIpm.RecordHandler}.
+     */
+    @Override
+    public void record(byte[] buf, int offset, int length, long recordNo) {
+        Iso8583View view;
+        try {
+            view = codec.view(buf, offset, length, encoding, false);
+        } catch (RuntimeException e) {
+            records++;
+            invalidRecords++;
+            return;
+        }
+        accept(view);
+    }
+
+    public void accept(Iso8583View view) {
+        int mti = (int) FieldCodecs.parseDigits(view.array(), view.messageOffset(), 4, zero);
+        int function = (int) digits(view, 24);
+        add(mti, function, digits(view, 4), digits(view, 49), digits(view, 5), digits(view, 50),
+                digits(view, 6), digits(view, 51), digits(view, 71));
+        if (mti == CONTROL_MTI && (function == FILE_HEADER || function == FILE_TRAILER)) {
+            control(function, view.getPds("0105"), view.getPds("0306"), view.getPds("0301"));
+        }
+    }
+
+    /**
+     * Add a record decoded to the {@link Iso8583#unpack} map form.
+     */
+    public void accept(Map<String, Object> record) {
+        int mti = (int) number(record.get("MTI"));
+        int function = (int) number(record.get("DE24"));
+        add(mti, function, number(record.get("DE4")), number(record.get("DE49")), number(record.get("DE5")),
+                number(record.get("DE50")), number(record.get("DE6")), number(record.get("DE51")),
+                number(record.get("DE71")));
+        if (mti == CONTROL_MTI && (function == FILE_HEADER || function == FILE_TRAILER)) {
+            control(function, text(record.get("PDS0105")), text(record.get("PDS0306")), text(record.get("PDS0301")));
+        }
+    }
+
+    private void add(int mti, int function, long de4, long currency4, long de5, long currency5,
+                     long de6, long currency6, long messageNumber) {
+        records++;
+        if (mti < 0) {
+            invalidRecords++;
+            return;
+        }
+        type(mti << 10 | (function + 1));
+        if (de4 >= 0) {
+            amounts[0][currency((int) currency4)] += de4;
+            checksum = (checksum + de4) % CHECKSUM_MODULUS;
+        }
+        if (de5 >= 0) amounts[1][currency((int) currency5)] += de5;
+        if (de6 >= 0) amounts[2][currency((int) currency6)] += de6;
+        if (messageNumber >= 0) {
+            if (firstMessageNumber < 0) firstMessageNumber = messageNumber;
+            lastMessageNumber = messageNumber;
+        }
+    }
+
+    private void control(int function, String fileId, String count, String checksum) {
+        if (function == FILE_HEADER) {
+            header = true;
+            headerFileId = fileId;
+        } else {
+            trailerRecord = records;
+            trailerFileId = fileId;
+            trailerCount = number(count);
+            trailerChecksum = number(checksum);
+            checksumAtTrailer = this.checksum;
+        }
+    }
+
+    private void type(int key) {
+        for (int i = 0; i < typeCount; i++) {
+            if (types[i] == key) {
+                typeCounts[i]++;
+                return;
+            }
+        }
+        if (typeCount == types.length) {
+            types = Arrays.copyOf(types, typeCount * 2);
+            typeCounts = Arrays.copyOf(typeCounts, typeCount * 2);
+        }
+        types[typeCount] = key;
+        typeCounts[typeCount++] = 1;
+    }
+
+    private int currency(int currency) {
+        for (int i = 0; i < currencyCount; i++) {
+            if (currencies[i] == currency) return i;
+        }
+        if (currencyCount == currencies.length) {
+            currencies = Arrays.copyOf(currencies, currencyCount * 2);
+            for (int de = 0; de < 3; de++) amounts[de] = Arrays.copyOf(amounts[de], currencyCount * 2);
+        }
+        currencies[currencyCount] = currency;
+        return currencyCount++;
+    }
+
+    private long digits(Iso8583View view, int bit) {
+        int offset = view.fieldOffset(bit);
+        return offset < 0 ? -1 : FieldCodecs.parseDigits(view.array(), offset, view.fieldLength(bit), zero);
+    }
+
+    private static long number(Object value) {
+        if (value instanceof Number) return ((Number) value).longValue();
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String text(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    // --- Results ---
+
+    public long records() {
+        return records;
+    }
+
+    /**
+     * @return records that could not be read or have a non numeric MTI.
+     */
+    public long invalidRecords() {
+        return invalidRecords;
+    }
+
+    /**
+     * @return record count by MTI and function code, e.g. "1240/200", or the MTI alone when DE24 is absent.
+     */
+    public Map<String, Long> counts() {
+        int[] order = Arrays.copyOf(types, typeCount);
+        Arrays.sort(order);
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int key : order) {
+            int i = 0;
+            while (types[i] != key) i++;
+            int function = (key & 0x3FF) - 1;
+            String name = String.format("%04d", key >>> 10) + (function < 0 ? "" : String.format("/%03d", function));
+            counts.put(name, typeCounts[i]);
+        }
+        return counts;
+    }
+
+    /**
+     * @param bit 4, 5 or 6
+     * @return total of the amount field by its currency code, e.g. "036", or "" when the currency is absent.
+     */
+    public Map<String, Long> amounts(int bit) {
+        if (bit < 4 || bit > 6) throw new IllegalArgumentException("Invalid amount field " + bit);
+        int[] order = Arrays.copyOf(currencies, currencyCount);
+        Arrays.sort(order);
+        Map<String, Long> totals = new LinkedHashMap<>();
+        for (int currency : order) {
+            int i = 0;
+            while (currencies[i] != currency) i++;
+            if (amounts[bit - 4][i] != 0) totals.put(currency < 0 ? "" : String.format("%03d", currency), amounts[bit - 4][i]);
+        }
+        return totals;
+    }
+
+    /**
+     * @return sum of DE4 over all records, modulo 10^16 as PDS0301.
+     */
+    public long checksum() {
+        return checksum;
+    }
+
+    /**
+     * @return first DE71 message number, or -1 when no record has one.
+     */
+    public long firstMessageNumber() {
+        return firstMessageNumber;
+    }
+
+    public long lastMessageNumber() {
+        return lastMessageNumber;
+    }
+
+    /**
+     * Check the totals against the header and trailer, call once the file has been read.
+     *
+     * @return the differences found, empty when the file reconciles
+     */
+    public List<String> reconcile() {
+        List<String> problems = new ArrayList<>();
+        if (!header) problems.add("No file header (1644/697)");
+        if (trailerRecord < 0) {
+            problems.add("No file trailer (1644/695)");
+            return problems;
+        }
+        if (trailerRecord != records) problems.add((records - trailerRecord) + " records after the file trailer");
+        if (header && headerFileId != null && !headerFileId.equals(trailerFileId)) {
+            problems.add("Trailer file ID " + trailerFileId + " does not match header file ID " + headerFileId);
+        }
+        if (trailerCount != trailerRecord) {
+            problems.add("Trailer message count (PDS0306) " + trailerCount + " but " + trailerRecord + " records read");
+        }
+        if (trailerChecksum != checksumAtTrailer) {
+            problems.add("Trailer amount checksum (PDS0301) " + trailerChecksum + " but DE4 total is " + checksumAtTrailer);
+        }
+        if (invalidRecords > 0) problems.add(invalidRecords + " records could not be read");
+        return problems;
+    }
+}
@@ -0,0 +1,186 @@
+package com.charisad.cardutil;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Copies the records of an IPM file that match a predicate, without decoding or re-encoding them.
+ * <p>
+ * Each record is indexed with an {@link Iso8583View} and the predicates compare the raw field bytes
+ * with their values encoded once in the file encoding, so no field is decoded to a String. Matching
+ * records are written as the same bytes, only the VBS framing and blocking of the output are new.
+ * Predicates are combined with {@link Predicate#and} and {@link Predicate#or}.
+ */
+public final class IpmFilter {
+    private final Predicate<Iso8583View> predicate;
+    private final CompiledIso8583Codec codec;
+    private final Charset encoding;
+    private long records;
+    private long matched;
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(byte[] buf, int offset, int length) throws IOException;
+    }
+
+    public IpmFilter(Predicate<Iso8583View> predicate) {
+        this(predicate, StandardCharsets.ISO_8859_1, null);
+    }
+
+    public IpmFilter(Predicate<Iso8583View> predicate, Charset encoding, Map<Integer, BitConfig> config) {
+        this.predicate = predicate;
+        this.codec = CompiledIso8583Codec.of(config);
+        this.encoding = encoding;
+    }
+
+    /**
+     * Copy the matching records of in to out.
+     *
+     * @return number of records copied
+     */
+    public long filter(MciIpm.VbsReader in, MciIpm.VbsWriter out) throws IOException {
+        return filter(in, out::write);
+    }
+
+    public long filter(MciIpm.VbsReader in, MciIpm.VbsChannelWriter out) throws IOException {
+        return filter(in, out::write);
+    }
+
+    private long filter(MciIpm.VbsReader in, RecordWriter out) throws IOException {
+        long before = matched;
+        in.forEachRecord((buf, offset, length, recordNo) -> {
+            records++;
+            if (predicate.test(codec.view(buf, offset, length, encoding, false))) {
+                out.write(buf, offset, length);
+                matched++;
+            }
+        });
+        return matched - before;
+    }
+
+    public long records() {
+        return records;
+    }
+
+    public long matched() {
+        return matched;
+    }
+
+    // --- Predicates ---
+
+    /**
+     * @param mti message type, e.g. "1240"
+     */
+    public static Predicate<Iso8583View> mti(String mti) {
+        Encoded value = new Encoded(mti);
+        return view -> value.matches(view, view.messageOffset(), 4);
+    }
+
+    public static Predicate<Iso8583View> has(int bit) {
+        return view -> view.has(bit);
+    }
+
+    /**
+     * The whole field equals value, e.g. fieldEquals(24, "200").
+     */
+    public static Predicate<Iso8583View> fieldEquals(int bit, String value) {
+        Encoded encoded = new Encoded(value);
+        return view -> view.has(bit) && encoded.matches(view, view.fieldOffset(bit), view.fieldLength(bit));
+    }
+
+    /**
+     * The field holds value at position, e.g. fieldAt(2, 0, "555544") for a BIN.
+     */
+    public static Predicate<Iso8583View> fieldAt(int bit, int position, String value) {
+        Encoded encoded = new Encoded(value);
+        return view -> view.fieldLength(bit) >= position
+                && encoded.startsWith(view, view.fieldOffset(bit) + position, view.fieldLength(bit) - position);
+    }
+
+    public static Predicate<Iso8583View> fieldStartsWith(int bit, String prefix) {
+        return fieldAt(bit, 0, prefix);
+    }
+
+    /**
+     * The start of the field is from low to high inclusive, e.g. fieldBetween(2, "510000", "559999")
+     * for a BIN range. Digits compare by value as they have the same length.
+     */
+    public static Predicate<Iso8583View> fieldBetween(int bit, String low, String high) {
+        if (low.length() != high.length()) throw new IllegalArgumentException("Range bounds must have the same length");
+        Encoded lowValue = new Encoded(low);
+        Encoded highValue = new Encoded(high);
+        return view -> {
+            int offset = view.fieldOffset(bit);
+            int length = view.fieldLength(bit);
+            return length >= 0 && lowValue.compare(view, offset, length) <= 0 && highValue.compare(view, offset, length) >= 0;
+        };
+    }
+
+    /**
+     * @param tag 4 digit PDS tag, e.g. "0023"
+     */
+    public static Predicate<Iso8583View> hasPds(String tag) {
+        int value = PdsData.tagOf(tag, 0);
+        if (value < 0) throw new IllegalArgumentException("Invalid PDS tag " + tag);
+        return view -> view.getPdsData().has(value);
+    }
+
+    public static Predicate<Iso8583View> pdsEquals(String tag, String value) {
+        int tagValue = PdsData.tagOf(tag, 0);
+        if (tagValue < 0) throw new IllegalArgumentException("Invalid PDS tag " + tag);
+        Encoded encoded = new Encoded(value);
+        return view -> {
+            PdsData pds = view.getPdsData();
+            int i = pds.indexOf(tagValue);
+            return i >= 0 && encoded.matches(view, pds.valueOffset(i), pds.valueLength(i));
+        };
+    }
+
+    /**
+     * A value encoded on first use in the encoding of the records, files almost always have one encoding.
+     */
+    private static final class Encoded {
+        private record Bytes(Charset encoding, byte[] bytes) {
+        }
+
+        private final String value;
+        private volatile Bytes cached;
+
+        Encoded(String value) {
+            this.value = value;
+        }
+
+        private byte[] bytes(Charset encoding) {
+            Bytes bytes = cached;
+            if (bytes == null || bytes.encoding() != encoding) {
+                bytes = new Bytes(encoding, value.getBytes(encoding));
+                cached = bytes;
+            }
+            return bytes.bytes();
+        }
+
+        boolean matches(Iso8583View view, int offset, int length) {
+            byte[] encoded = bytes(view.encoding());
+            return encoded.length == length && Arrays.equals(view.array(), offset, offset + length, encoded, 0, length);
+        }
+
+        boolean startsWith(Iso8583View view, int offset, int available) {
+            byte[] encoded = bytes(view.encoding());
+            return encoded.length <= available && matches(view, offset, encoded.length);
+        }
+
+        /**
+         * Compare with the same number of bytes at offset, a field shorter than the value sorts first.
+         */
+        int compare(Iso8583View view, int offset, int available) {
+            byte[] encoded = bytes(view.encoding());
+            int length = Math.min(encoded.length, available);
+            int c = Arrays.compareUnsigned(encoded, 0, length, view.array(), offset, offset + length);
+            return c != 0 ? c : encoded.length - length;
+        }
+    }
+}
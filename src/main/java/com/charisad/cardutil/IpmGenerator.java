@@ -0,0 +1,339 @@
+package com.charisad.cardutil;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Synthetic IPM files for load and soak testing.
+ * <p>
+ * Records are drawn from a {@link Profile} of message types, PDS tag counts, DE55 sizes and DE43
+ * lengths. PANs and acquirer reference numbers carry valid check digits, and the file starts with a
+ * 1644/697 header and ends with a 1644/695 trailer whose message count (PDS0306) and amount checksum
+ * (PDS0301) match the records, so {@link IpmFileSummary#reconcile()} passes. Message numbers (DE71)
+ * run from 1 on the header to the trailer.
+ * <p>
+ * Each record depends only on the seed, the business date and its message number, so a file is the
+ * same whatever the number of threads. Records are built in parallel batches and packed by a
+ * {@link MciIpm.ParallelIpmWriter}.
+ */
+public final class IpmGenerator {
+    private static final int BATCH_SIZE = 4096;
+    private static final long CHECKSUM_MODULUS = 10_000_000_000_000_000L;
+    private static final String[] NAMES = {"GROCER", "COFFEE", "FUEL", "PHARMACY", "BOOKS", "HARDWARE", "TRAVEL", "DINER"};
+    private static final String[] STREETS = {"1 GEORGE ST", "22 HIGH ST", "9 MARKET LANE", "140 KING RD", "7 STATION PDE"};
+    private static final String[][] CITIES = {
+            {"SYDNEY", "2000", "NSW", "AUS"}, {"MELBOURNE", "3000", "VIC", "AUS"}, {"LONDON", "EC1A 1BB", "", "GBR"},
+            {"NEW YORK", "10001", "NY", "USA"}, {"AUCKLAND", "1010", "", "NZL"}};
+    private static final String[] CURRENCIES = {"036", "036", "036", "840", "826", "554"};
+    private static final int[] MCCS = {5411, 5812, 5541, 5912, 5942, 5251, 4722, 5814};
+    // Optional PDS tags and their values, the count used per record comes from the profile
+    private static final String[][] PDS_TAGS = {
+            {"0002", "MCC"}, {"0003", "MCC"}, {"0052", "210"}, {"0057", "A"}, {"0148", "0362"},
+            {"0158", "MCC 1 A 1"}, {"0165", "M"}, {"0170", "0295568888 SALES"}, {"0177", "0"}, {"0191", "2"}};
+
+    private final long seed;
+    private Profile profile = Profile.defaults();
+    private LocalDate date = LocalDate.now();
+    private String processorId = "00000002002";
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public IpmGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public IpmGenerator withProfile(Profile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    /**
+     * Business date of the file, part of the file ID and the day transactions are drawn from.
+     */
+    public IpmGenerator withDate(LocalDate date) {
+        this.date = date;
+        return this;
+    }
+
+    /**
+     * @param processorId 11 digit processor ID of the file ID (PDS0105)
+     */
+    public IpmGenerator withProcessorId(String processorId) {
+        this.processorId = processorId;
+        return this;
+    }
+
+    public IpmGenerator withThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * @return the file ID (PDS0105) of the header and trailer
+     */
+    public String fileId() {
+        return String.format("002%02d%02d%02d%s00001", date.getYear() % 100, date.getMonthValue(),
+                date.getDayOfMonth(), processorId);
+    }
+
+    /**
+     * Write a file with a header, records and a trailer, compressed when the path ends with .gz or .zip.
+     *
+     * @return the number of records written, including the header and trailer
+     */
+    public long generate(Path output, boolean blocked, long records) throws IOException {
+        return generate(Channels.newChannel(MciIpm.openOutput(output)), blocked, records);
+    }
+
+    /**
+     * Write a file to out and close it.
+     */
+    public long generate(WritableByteChannel out, boolean blocked, long records) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (MciIpm.ParallelIpmWriter writer = new MciIpm.ParallelIpmWriter(out, blocked,
+                StandardCharsets.ISO_8859_1, Config.DEFAULT_BIT_CONFIG).withThreads(threads)) {
+            writer.write(control(IpmFileSummary.FILE_HEADER, 1));
+            long checksum = 0;
+            for (long done = 0; done < records; done += BATCH_SIZE) {
+                // Message number 1 is the header
+                long first = done + 2;
+                int count = (int) Math.min(BATCH_SIZE, records - done);
+                List<Map<String, Object>> batch = pool.submit(() -> IntStream.range(0, count).parallel()
+                        .mapToObj(i -> record(first + i)).collect(Collectors.toList())).get();
+                for (Map<String, Object> record : batch) {
+                    Object amount = record.get("DE4");
+                    if (amount != null) checksum = (checksum + (Long) amount) % CHECKSUM_MODULUS;
+                    writer.write(record);
+                }
+            }
+            Map<String, Object> trailer = control(IpmFileSummary.FILE_TRAILER, records + 2);
+            trailer.put("PDS0301", String.format("%016d", checksum));
+            trailer.put("PDS0306", String.format("%08d", records + 2));
+            writer.write(trailer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted generating records", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error generating records", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return records + 2;
+    }
+
+    private Map<String, Object> control(int function, long messageNumber) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1644");
+        data.put("DE24", String.valueOf(function));
+        data.put("DE71", (int) messageNumber);
+        data.put("PDS0105", fileId());
+        return data;
+    }
+
+    /**
+     * @return the record with the message number, in {@link Iso8583#unpack} map form
+     */
+    public Map<String, Object> record(long messageNumber) {
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + messageNumber);
+        MessageType type = profile.pick(random);
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", type.mti());
+        data.put("DE24", type.function());
+        data.put("DE71", (int) messageNumber);
+
+        String bin = profile.bins[random.nextInt(profile.bins.length)];
+        String pan = Card.addCheckDigit(bin + digits(random, 9));
+        data.put("DE2", pan);
+        data.put("DE3", "000000");
+        // Amounts spread over several orders of magnitude, most of them small
+        long amount = (long) Math.exp(random.nextDouble(Math.log(100), Math.log(500_000)));
+        data.put("DE4", amount);
+        data.put("DE49", CURRENCIES[random.nextInt(CURRENCIES.length)]);
+        LocalDateTime time = date.minusDays(1).atStartOfDay().plusSeconds(random.nextInt(86_400));
+        data.put("DE12", time);
+        data.put("DE14", String.format("%02d%02d", (date.getYear() + 1 + random.nextInt(4)) % 100, 1 + random.nextInt(12)));
+        data.put("DE22", "A10101654140");
+        data.put("DE26", MCCS[random.nextInt(MCCS.length)]);
+        data.put("DE31", Card.addCheckDigit("7" + bin + time.getYear() % 10 + String.format("%03d", time.getDayOfYear())
+                + digits(random, 11)));
+        data.put("DE33", "002002");
+        data.put("DE37", digits(random, 12));
+        data.put("DE38", digits(random, 6));
+        data.put("DE42", String.format("%-15s", "M" + digits(random, 9)));
+        data.put("DE43", de43(random));
+        data.put("DE63", "MCC" + digits(random, 13));
+        data.put("DE94", "0000002002");
+        if (type.reasonCode() != null) data.put("DE25", type.reasonCode());
+        if (type.mti().equals("1740")) {
+            data.put("DE72", "FEE COLLECTION " + digits(random, 8));
+            data.put("DE73", String.format("%02d%02d%02d", date.getYear() % 100, date.getMonthValue(), date.getDayOfMonth()));
+        } else if (random.nextInt(100) < profile.chipPercent) {
+            data.put("DE55", iccData(random, amount));
+        }
+
+        data.put("PDS0023", "POI");
+        int pdsCount = profile.pdsMin + random.nextInt(profile.pdsMax - profile.pdsMin + 1);
+        int[] order = IntStream.range(0, PDS_TAGS.length).toArray();
+        for (int i = 0; i < pdsCount; i++) {
+            int j = i + random.nextInt(order.length - i);
+            int tag = order[j];
+            order[j] = order[i];
+            data.put("PDS" + PDS_TAGS[tag][0], PDS_TAGS[tag][1]);
+        }
+        return data;
+    }
+
+    private String de43(SplittableRandom random) {
+        String[] city = CITIES[random.nextInt(CITIES.length)];
+        int nameLength = profile.de43NameMin + random.nextInt(profile.de43NameMax - profile.de43NameMin + 1);
+        StringBuilder name = new StringBuilder(NAMES[random.nextInt(NAMES.length)]);
+        while (name.length() < nameLength) name.append(' ').append(NAMES[random.nextInt(NAMES.length)]);
+        name.setLength(nameLength);
+        return name.toString().trim() + "\\" + STREETS[random.nextInt(STREETS.length)] + "\\" + city[0] + "\\"
+                + String.format("%-10s%-3s%s", city[1], city[2], city[3]);
+    }
+
+    /**
+     * ARQC data objects, with the issuer application data (9F10) and a filler (9F7C) sized to the profile.
+     */
+    private byte[] iccData(SplittableRandom random, long amount) {
+        int size = profile.iccMin + random.nextInt(profile.iccMax - profile.iccMin + 1);
+        IccData.Builder builder = IccData.builder()
+                .add(0x9F26, bytes(random, 8))
+                .add(0x9F27, new byte[]{(byte) 0x80})
+                .add(0x9F36, bytes(random, 2))
+                .add(0x9F37, bytes(random, 4))
+                .add(0x95, new byte[5])
+                .add(0x9C, new byte[1])
+                .add(0x82, new byte[]{0x19, (byte) 0x80})
+                .add(0x9F02, Iso8583.hexStringToByteArray(String.format("%012d", amount)));
+        // 50 bytes so far, the rest (4 to 70 bytes) is 9F10 of 1 to 32 bytes and, beyond that, 9F7C
+        int remaining = size - 50;
+        if (remaining <= 35) {
+            builder.add(0x9F10, bytes(random, remaining - 3));
+        } else {
+            int iad = Math.min(32, remaining - 7);
+            builder.add(0x9F10, bytes(random, iad));
+            builder.add(0x9F7C, bytes(random, remaining - 6 - iad));
+        }
+        return builder.build();
+    }
+
+    private static String digits(SplittableRandom random, int count) {
+        char[] digits = new char[count];
+        for (int i = 0; i < count; i++) digits[i] = (char) ('0' + random.nextInt(10));
+        return new String(digits);
+    }
+
+    private static byte[] bytes(SplittableRandom random, int count) {
+        byte[] bytes = new byte[count];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    public record MessageType(String mti, String function, String reasonCode) {
+    }
+
+    /**
+     * Distribution of the generated records.
+     * <p>
+     * The defaults are mostly first presentments (1240/200) with some second presentments, chargebacks
+     * (1442/450) and fee collections (1740/700), 2 to 6 optional PDS tags, DE55 of 80 to 120 bytes on
+     * 60% of the presentments and DE43 names of 6 to 22 characters.
+     */
+    public static final class Profile {
+        private final List<MessageType> types = new ArrayList<>();
+        private final List<Integer> weights = new ArrayList<>();
+        private int totalWeight;
+        private String[] bins = {"555544", "510510", "222300"};
+        private int pdsMin = 2;
+        private int pdsMax = 6;
+        private int iccMin = 80;
+        private int iccMax = 120;
+        private int chipPercent = 60;
+        private int de43NameMin = 6;
+        private int de43NameMax = 22;
+
+        public static Profile defaults() {
+            return new Profile()
+                    .withType(new MessageType("1240", "200", null), 90)
+                    .withType(new MessageType("1240", "205", "2700"), 2)
+                    .withType(new MessageType("1442", "450", "4837"), 4)
+                    .withType(new MessageType("1740", "700", "7600"), 4);
+        }
+
+        /**
+         * An empty profile, types must be added with {@link #withType}.
+         */
+        public static Profile empty() {
+            return new Profile();
+        }
+
+        public Profile withType(MessageType type, int weight) {
+            if (weight <= 0) throw new IllegalArgumentException("Weight must be positive");
+            types.add(type);
+            weights.add(weight);
+            totalWeight += weight;
+            return this;
+        }
+
+        /**
+         * @param bins 6 digit BINs the PANs are drawn from
+         */
+        public Profile withBins(String... bins) {
+            for (String bin : bins) {
+                if (bin.length() != 6) throw new IllegalArgumentException("BIN must have 6 digits: " + bin);
+            }
+            this.bins = bins.clone();
+            return this;
+        }
+
+        /**
+         * Number of optional PDS tags per record, from min to max (0 to 10).
+         */
+        public Profile withPdsCount(int min, int max) {
+            this.pdsMin = Math.min(PDS_TAGS.length, Math.max(0, min));
+            this.pdsMax = Math.min(PDS_TAGS.length, Math.max(this.pdsMin, max));
+            return this;
+        }
+
+        /**
+         * DE55 on percent of the records other than fee collections, from min to max bytes (54 to 120).
+         */
+        public Profile withIcc(int percent, int min, int max) {
+            this.chipPercent = percent;
+            this.iccMin = Math.min(120, Math.max(54, min));
+            this.iccMax = Math.min(120, Math.max(this.iccMin, max));
+            return this;
+        }
+
+        public Profile withDe43NameLength(int min, int max) {
+            this.de43NameMin = Math.max(1, min);
+            this.de43NameMax = Math.max(this.de43NameMin, max);
+            return this;
+        }
+
+        private MessageType pick(SplittableRandom random) {
+            if (types.isEmpty()) throw new IllegalStateException("Profile has no message types");
+            int r = random.nextInt(totalWeight);
+            for (int i = 0; i < types.size(); i++) {
+                r -= weights.get(i);
+                if (r < 0) return types.get(i);
+            }
+            return types.get(types.size() - 1);
+        }
+    }
+}
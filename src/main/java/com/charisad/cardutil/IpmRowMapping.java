@@ -0,0 +1,115 @@
+package com.charisad.cardutil;
+
+import java.nio.BufferOverflowException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Layout of rows of String values, such as CSV rows, compiled once from their header.
+ * <p>
+ * Each column is mapped to the MTI, a DE bit, a PDS tag, ICC_DATA or an ICC TAG key, so a row is
+ * packed straight from its values without building a map per row. Empty values are absent, and
+ * columns with other names (such as DE43_NAME) are ignored, as when packing the {@link Iso8583#unpack}
+ * map form. Values are converted for their field: digits of fixed numeric fields are copied without
+ * parsing, ISO date times (as written by ipm2csv) go to datetime fields and hex to ICC fields.
+ */
+public final class IpmRowMapping {
+    private final CompiledIso8583Codec codec;
+    private final List<String> header;
+    final int mtiColumn;
+    final int[] bitColumns = new int[CompiledIso8583Codec.MAX_BIT + 1];
+    final int[] pdsTags;
+    final int[] pdsColumns;
+    private final int iccDataColumn;
+    private final String[] iccTags;
+    private final int[] iccTagColumns;
+
+    private IpmRowMapping(List<String> header, Map<Integer, BitConfig> config) {
+        this.codec = CompiledIso8583Codec.of(config);
+        this.header = List.copyOf(header);
+        Arrays.fill(bitColumns, -1);
+        int mti = -1;
+        int iccData = -1;
+        List<int[]> pds = new ArrayList<>();
+        List<String> tags = new ArrayList<>();
+        for (int column = 0; column < header.size(); column++) {
+            String key = header.get(column);
+            if (key.equals("MTI")) {
+                mti = column;
+            } else if (key.equals("ICC_DATA")) {
+                iccData = column;
+            } else if (key.startsWith("TAG")) {
+                tags.add(key);
+            } else if (key.startsWith("PDS") && PdsData.tagOf(key, 3) >= 0) {
+                pds.add(new int[]{PdsData.tagOf(key, 3), column});
+            } else if (key.startsWith("DE")) {
+                int bit = PdsData.tagOf(key, 2);
+                if (bit >= 1 && bit <= CompiledIso8583Codec.MAX_BIT) bitColumns[bit] = column;
+            }
+        }
+        this.mtiColumn = mti;
+        this.iccDataColumn = iccData;
+
+        // PDS in tag order as the map rollup sorts them, TAG keys in name order as iccToDe does
+        pds.sort((a, b) -> Integer.compare(a[0], b[0]));
+        pdsTags = pds.stream().mapToInt(entry -> entry[0]).toArray();
+        pdsColumns = pds.stream().mapToInt(entry -> entry[1]).toArray();
+        tags.sort(null);
+        iccTags = new String[tags.size()];
+        iccTagColumns = new int[tags.size()];
+        for (int i = 0; i < tags.size(); i++) {
+            iccTags[i] = tags.get(i).substring(3);
+            iccTagColumns[i] = header.indexOf(tags.get(i));
+        }
+    }
+
+    public static IpmRowMapping of(List<String> header) {
+        return new IpmRowMapping(header, null);
+    }
+
+    public static IpmRowMapping of(List<String> header, Map<Integer, BitConfig> config) {
+        return new IpmRowMapping(header, config);
+    }
+
+    public List<String> header() {
+        return header;
+    }
+
+    /**
+     * Pack a row into the array starting at offset.
+     *
+     * @return the encoded length
+     * @throws BufferOverflowException if the message does not fit in the array
+     */
+    public int packInto(String[] row, byte[] buf, int offset, Charset encoding) {
+        return codec.packInto(this, row, buf, offset, buf.length, encoding, false);
+    }
+
+    /**
+     * @return the DE55 bytes from the ICC_DATA or TAG columns, or null when the row has none.
+     */
+    byte[] iccToDe(String[] row) {
+        String iccData = value(row, iccDataColumn);
+        if (iccData != null) return Iso8583.hexStringToByteArray(iccData);
+        IccData.Builder builder = null;
+        for (int i = 0; i < iccTags.length; i++) {
+            String value = value(row, iccTagColumns[i]);
+            if (value == null) continue;
+            if (builder == null) builder = IccData.builder();
+            builder.add(iccTags[i], value);
+        }
+        return builder == null ? null : builder.build();
+    }
+
+    /**
+     * @return the value of the column, or null when there is no such column or the value is empty.
+     */
+    static String value(String[] row, int column) {
+        if (column < 0 || column >= row.length) return null;
+        String value = row[column];
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
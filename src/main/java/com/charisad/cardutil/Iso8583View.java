@@ -0,0 +1,249 @@
+package com.charisad.cardutil;
+
+import com.charisad.cardutil.CompiledIso8583Codec.FieldDescriptor;
+import com.charisad.cardutil.CompiledIso8583Codec.Processor;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only view over the raw bytes of an ISO8583 message.
+ * <p>
+ * Construction makes a single pass over the bitmap and the length prefixes and records only the
+ * offset and length of each field. Decoding, type conversion and PDS/ICC/DE43 processing happen
+ * when a field is accessed, so scans that read a handful of fields skip the cost of the rest.
+ * <p>
+ * The view does not copy the message, the caller must not change the bytes while the view is in use.
+ */
+public final class Iso8583View {
+    private static final int ABSENT = CompiledIso8583Codec.ABSENT;
+
+    private final CompiledIso8583Codec codec;
+    private final byte[] message;
+    private final int offset;
+    private final int length;
+    private final Charset encoding;
+    private final int[] fieldOffsets = new int[CompiledIso8583Codec.MAX_BIT + 1];
+    private final int[] fieldLengths = new int[CompiledIso8583Codec.MAX_BIT + 1];
+
+    private String mti;
+    private Object[] values;
+    private Map<String, String> pdsValues;
+    private Map<String, String> iccValues;
+    private IccData iccData;
+    private PdsData pdsData;
+    private Map<String, String> de43Values;
+
+    Iso8583View(CompiledIso8583Codec codec, byte[] message, int offset, int length, Charset encoding, boolean hexBitmap) {
+        this.codec = codec;
+        this.message = message;
+        this.offset = offset;
+        this.length = length;
+        this.encoding = encoding;
+        codec.index(message, offset, length, encoding, hexBitmap, fieldOffsets, fieldLengths);
+    }
+
+    private byte[] copy() {
+        return Arrays.copyOfRange(message, offset, offset + length);
+    }
+
+    public String getMti() {
+        if (mti == null) mti = new String(message, offset, 4, encoding);
+        return mti;
+    }
+
+    /**
+     * @return true if the bit is set in the bitmap.
+     */
+    public boolean has(int bit) {
+        return bit >= 2 && bit <= CompiledIso8583Codec.MAX_BIT && fieldOffsets[bit] != ABSENT;
+    }
+
+    /**
+     * @return offset of the field data (after any length prefix) in {@link #array()}, or -1 when absent.
+     */
+    public int fieldOffset(int bit) {
+        return has(bit) ? fieldOffsets[bit] : ABSENT;
+    }
+
+    /**
+     * @return length of the field data in bytes, or -1 when absent.
+     */
+    public int fieldLength(int bit) {
+        return has(bit) ? fieldLengths[bit] : ABSENT;
+    }
+
+    /**
+     * @return the backing message array, fields are located with {@link #fieldOffset} and {@link #fieldLength}.
+     */
+    public byte[] array() {
+        return message;
+    }
+
+    /**
+     * @return offset of the message, its MTI, in {@link #array()}.
+     */
+    int messageOffset() {
+        return offset;
+    }
+
+    public Charset encoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the field decoded as a String without type conversion, or null when absent.
+     */
+    public String getString(int bit) {
+        if (!has(bit)) return null;
+        return new String(message, fieldOffsets[bit], fieldLengths[bit], encoding);
+    }
+
+    /**
+     * @return a copy of the raw field bytes, or null when absent.
+     */
+    public byte[] getBytes(int bit) {
+        if (!has(bit)) return null;
+        return Arrays.copyOfRange(message, fieldOffsets[bit], fieldOffsets[bit] + fieldLengths[bit]);
+    }
+
+    /**
+     * @return the field converted as {@link Iso8583#unpack} would, or null when absent.
+     */
+    public Object get(int bit) {
+        if (!has(bit)) return null;
+        if (values == null) values = new Object[CompiledIso8583Codec.MAX_BIT + 1];
+        Object value = values[bit];
+        if (value == null) {
+            value = CompiledIso8583Codec.decode(codec.field(bit), message, fieldOffsets[bit], fieldLengths[bit], encoding);
+            values[bit] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Get a value by its {@link Iso8583#unpack} map key, such as MTI, DE4, PDS0023, TAG9F26 or DE43_NAME.
+     * Only the field processors needed for the key are run.
+     */
+    public Object get(String key) {
+        if ("MTI".equals(key)) return getMti();
+        if (key.startsWith("PDS")) return getPdsData().getString(key.substring(3));
+        if (key.startsWith("TAG")) {
+            IccData icc = getIcc();
+            try {
+                return icc == null ? null : icc.getHex(key.substring(3));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if ("ICC_DATA".equals(key)) return icc().get(key);
+        if (key.startsWith("DE43_")) return de43().get(key);
+        if (key.startsWith("DE")) {
+            try {
+                return get(Integer.parseInt(key.substring(2)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return PDS value for the tag, e.g. getPds("0023"), or null when absent.
+     */
+    public String getPds(String tag) {
+        return getPdsData().getString(tag);
+    }
+
+    public String getPds(int tag) {
+        return getPdsData().getString(tag);
+    }
+
+    /**
+     * Tag index over the PDS of every PDS field in the message, read from the message bytes on access.
+     */
+    public PdsData getPdsData() {
+        if (pdsData == null) {
+            pdsData = PdsData.empty(message, encoding);
+            for (int bit : codec.pdsBits()) {
+                if (has(bit)) pdsData.add(fieldOffsets[bit], fieldLengths[bit]);
+            }
+        }
+        return pdsData;
+    }
+
+    private void process(int bit, Map<String, String> out) {
+        CompiledIso8583Codec.process(codec.field(bit), message, fieldOffsets[bit], fieldLengths[bit], encoding, out);
+    }
+
+    private Map<String, String> pds() {
+        if (pdsValues == null) {
+            pdsValues = new HashMap<>();
+            for (int bit : codec.pdsBits()) {
+                if (has(bit)) process(bit, pdsValues);
+            }
+        }
+        return pdsValues;
+    }
+
+    /**
+     * BER-TLV index over the ICC field of the message, or null when it has none. Tag values are read
+     * from the message bytes on access.
+     */
+    public IccData getIcc() {
+        if (iccData == null) {
+            for (int bit = 2; bit <= CompiledIso8583Codec.MAX_BIT; bit++) {
+                if (has(bit) && codec.field(bit).processor == Processor.ICC) {
+                    iccData = IccData.parse(message, fieldOffsets[bit], fieldLengths[bit]);
+                    break;
+                }
+            }
+        }
+        return iccData;
+    }
+
+    private Map<String, String> icc() {
+        if (iccValues == null) {
+            iccValues = new HashMap<>();
+            for (int bit = 2; bit <= CompiledIso8583Codec.MAX_BIT; bit++) {
+                FieldDescriptor field = codec.field(bit);
+                if (has(bit) && field.processor == Processor.ICC) process(bit, iccValues);
+            }
+        }
+        return iccValues;
+    }
+
+    private Map<String, String> de43() {
+        if (de43Values == null) {
+            de43Values = new HashMap<>();
+            for (int bit = 2; bit <= CompiledIso8583Codec.MAX_BIT; bit++) {
+                FieldDescriptor field = codec.field(bit);
+                if (has(bit) && field.processor == Processor.DE43) process(bit, de43Values);
+            }
+        }
+        return de43Values;
+    }
+
+    /**
+     * Decode every field, giving the same map as {@link Iso8583#unpack}.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("MTI", getMti());
+        for (int bit = 2; bit <= CompiledIso8583Codec.MAX_BIT; bit++) {
+            if (!has(bit)) continue;
+            map.put("DE" + bit, get(bit));
+        }
+        map.putAll(pds());
+        map.putAll(icc());
+        map.putAll(de43());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
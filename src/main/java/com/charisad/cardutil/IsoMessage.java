@@ -0,0 +1,351 @@
+package com.charisad.cardutil;
+
+import com.charisad.cardutil.CompiledIso8583Codec.FieldDescriptor;
+import com.charisad.cardutil.CompiledIso8583Codec.Processor;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mutable, reusable ISO8583 message with slots indexed by bit number.
+ * <p>
+ * Unpacking into a message only locates the fields in the record bytes. Values are decoded on access,
+ * and numeric fields can be read with {@link #getLong(int)} without boxing. Call {@link #reset()} (or
+ * let {@link MciIpm.IpmReader#next(IsoMessage)} do it) to reuse one instance for every record of a file.
+ * <p>
+ * An unpacked message reads from the record bytes it was unpacked from, those bytes must not change
+ * until the message is reset.
+ */
+public final class IsoMessage {
+    private static final int MAX_BIT = CompiledIso8583Codec.MAX_BIT;
+    private static final byte EMPTY = 0;
+    private static final byte RAW = 1;
+    private static final byte LONG = 2;
+    private static final byte OBJECT = 3;
+
+    private String mti;
+    private final byte[] state = new byte[MAX_BIT + 1];
+    private final long[] longs = new long[MAX_BIT + 1];
+    private final Object[] values = new Object[MAX_BIT + 1];
+    private final Map<String, String> subfields = new HashMap<>();
+
+    // Source of RAW fields
+    private CompiledIso8583Codec codec;
+    private byte[] raw;
+    private Charset encoding = StandardCharsets.ISO_8859_1;
+    private final int[] offsets = new int[MAX_BIT + 1];
+    private final int[] lengths = new int[MAX_BIT + 1];
+    private boolean subfieldsLoaded = true;
+    private PdsData pdsData;
+
+    /**
+     * Clear all fields so the instance can be reused.
+     */
+    public IsoMessage reset() {
+        mti = null;
+        Arrays.fill(state, EMPTY);
+        Arrays.fill(values, null);
+        subfields.clear();
+        subfieldsLoaded = true;
+        pdsData = null;
+        codec = null;
+        raw = null;
+        return this;
+    }
+
+    /**
+     * Reset and locate the fields of the message bytes, see {@link CompiledIso8583Codec#unpackInto}.
+     */
+    void wrap(CompiledIso8583Codec codec, byte[] message, int offset, int length, Charset encoding, boolean hexBitmap) {
+        reset();
+        codec.index(message, offset, length, encoding, hexBitmap, offsets, lengths);
+        this.codec = codec;
+        this.raw = message;
+        this.encoding = encoding;
+        this.mti = new String(message, offset, 4, encoding);
+        for (int bit = 2; bit <= MAX_BIT; bit++) {
+            if (offsets[bit] != CompiledIso8583Codec.ABSENT) {
+                state[bit] = RAW;
+                if (codec.field(bit).processor != Processor.NONE) subfieldsLoaded = false;
+            }
+        }
+    }
+
+    public String getMti() {
+        return mti;
+    }
+
+    public IsoMessage setMti(String mti) {
+        this.mti = mti;
+        return this;
+    }
+
+    public boolean has(int bit) {
+        return bit >= 2 && bit <= MAX_BIT && state[bit] != EMPTY;
+    }
+
+    /**
+     * Numeric value of the field without boxing.
+     *
+     * @throws NumberFormatException if the field is not numeric
+     * @throws IllegalStateException if the field is absent
+     */
+    public long getLong(int bit) {
+        switch (has(bit) ? state[bit] : EMPTY) {
+            case LONG:
+                return longs[bit];
+            case RAW:
+                return FieldCodecs.parseLong(raw, offsets[bit], lengths[bit], encoding);
+            case OBJECT:
+                Object value = values[bit];
+                return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString().trim());
+            default:
+                throw new IllegalStateException("DE" + bit + " not present");
+        }
+    }
+
+    public long getLong(int bit, long defaultValue) {
+        return has(bit) ? getLong(bit) : defaultValue;
+    }
+
+    /**
+     * Field value typed as {@link Iso8583#unpack} returns it, or null when absent.
+     */
+    public Object get(int bit) {
+        if (!has(bit)) return null;
+        switch (state[bit]) {
+            case LONG:
+                return longs[bit];
+            case RAW:
+                if (values[bit] == null) {
+                    values[bit] = CompiledIso8583Codec.decode(codec.field(bit), raw, offsets[bit], lengths[bit], encoding);
+                }
+                return values[bit];
+            default:
+                return values[bit];
+        }
+    }
+
+    /**
+     * Field value as a String, or null when absent.
+     */
+    public String getString(int bit) {
+        if (!has(bit)) return null;
+        if (state[bit] == RAW) {
+            if (values[bit] instanceof String) return (String) values[bit];
+            return new String(raw, offsets[bit], lengths[bit], encoding);
+        }
+        Object value = get(bit);
+        return value instanceof byte[] ? new String((byte[]) value, encoding) : value.toString();
+    }
+
+    /**
+     * Set a field value. On an unpacked message, setting a PDS, ICC or DE43 field also replaces the
+     * subfields that came from its old value with those of the new value.
+     */
+    public IsoMessage set(int bit, Object value) {
+        checkBit(bit);
+        if (value == null) return remove(bit);
+        FieldDescriptor field = processedField(bit);
+        if (field != null) removeSubfields(bit, field);
+        state[bit] = OBJECT;
+        values[bit] = value;
+        if (field != null) processValue(bit, field, subfields);
+        return this;
+    }
+
+    public IsoMessage setLong(int bit, long value) {
+        checkBit(bit);
+        FieldDescriptor field = processedField(bit);
+        if (field != null) removeSubfields(bit, field);
+        state[bit] = LONG;
+        longs[bit] = value;
+        values[bit] = null;
+        return this;
+    }
+
+    /**
+     * Remove a field, and on an unpacked message the subfields that came from it.
+     */
+    public IsoMessage remove(int bit) {
+        checkBit(bit);
+        FieldDescriptor field = processedField(bit);
+        if (field != null) removeSubfields(bit, field);
+        state[bit] = EMPTY;
+        values[bit] = null;
+        return this;
+    }
+
+    /**
+     * @return the field if the message was unpacked and the field has a processor, otherwise null
+     */
+    private FieldDescriptor processedField(int bit) {
+        if (codec == null) return null;
+        FieldDescriptor field = codec.field(bit);
+        return field != null && field.processor != Processor.NONE ? field : null;
+    }
+
+    private void removeSubfields(int bit, FieldDescriptor field) {
+        Map<String, String> old = new HashMap<>();
+        processValue(bit, field, old);
+        subfields().keySet().removeAll(old.keySet());
+        pdsData = null;
+    }
+
+    private void processValue(int bit, FieldDescriptor field, Map<String, String> out) {
+        if (state[bit] == RAW) {
+            CompiledIso8583Codec.process(field, raw, offsets[bit], lengths[bit], encoding, out);
+        } else if (state[bit] == OBJECT && (values[bit] instanceof String || values[bit] instanceof byte[])) {
+            byte[] bytes = values[bit] instanceof byte[] ? (byte[]) values[bit] : ((String) values[bit]).getBytes(encoding);
+            CompiledIso8583Codec.process(field, bytes, 0, bytes.length, encoding, out);
+        }
+    }
+
+    private static void checkBit(int bit) {
+        if (bit < 2 || bit > MAX_BIT) throw new IllegalArgumentException("Invalid bit " + bit);
+    }
+
+    /**
+     * Subfield produced by a field processor, keyed as in the map form (PDS0023, TAG9F26, DE43_NAME).
+     */
+    public String getSubfield(String key) {
+        return subfields().get(key);
+    }
+
+    public String getPds(String tag) {
+        if (subfieldsLoaded) return subfields.get("PDS" + tag);
+        return pdsData().getString(tag);
+    }
+
+    /**
+     * PDS value by tag, read from the record bytes until a subfield is changed.
+     */
+    public String getPds(int tag) {
+        if (subfieldsLoaded) return subfields.get(PdsData.key(tag));
+        return pdsData().getString(tag);
+    }
+
+    private PdsData pdsData() {
+        if (pdsData == null) {
+            pdsData = PdsData.empty(raw, encoding);
+            for (int bit : codec.pdsBits()) {
+                if (state[bit] == RAW) pdsData.add(offsets[bit], lengths[bit]);
+            }
+        }
+        return pdsData;
+    }
+
+    public IsoMessage setSubfield(String key, String value) {
+        if (value == null) {
+            subfields().remove(key);
+        } else {
+            subfields().put(key, value);
+        }
+        return this;
+    }
+
+    // --- Raw access for packing ---
+
+    boolean isRaw(int bit) {
+        return state[bit] == RAW;
+    }
+
+    boolean isLong(int bit) {
+        return state[bit] == LONG;
+    }
+
+    byte[] rawArray() {
+        return raw;
+    }
+
+    int rawOffset(int bit) {
+        return offsets[bit];
+    }
+
+    int rawLength(int bit) {
+        return lengths[bit];
+    }
+
+    Charset rawEncoding() {
+        return encoding;
+    }
+
+    Map<String, String> subfieldMap() {
+        return subfields();
+    }
+
+    private Map<String, String> subfields() {
+        if (!subfieldsLoaded) {
+            subfieldsLoaded = true;
+            for (int bit = 2; bit <= MAX_BIT; bit++) {
+                if (state[bit] != RAW) continue;
+                FieldDescriptor field = codec.field(bit);
+                if (field.processor == Processor.NONE) continue;
+                CompiledIso8583Codec.process(field, raw, offsets[bit], lengths[bit], encoding, subfields);
+            }
+        }
+        return subfields;
+    }
+
+    /**
+     * Copy into the map form used by {@link Iso8583#pack} and {@link Iso8583#unpack}.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        if (mti != null) map.put("MTI", mti);
+        for (int bit = 2; bit <= MAX_BIT; bit++) {
+            if (has(bit)) map.put("DE" + bit, get(bit));
+        }
+        map.putAll(subfields());
+        return map;
+    }
+
+    /**
+     * Load the map form into this message, after a {@link #reset()}.
+     */
+    public IsoMessage fromMap(Map<String, Object> data) {
+        reset();
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (value == null) continue;
+            if ("MTI".equals(key)) {
+                mti = value.toString();
+                continue;
+            }
+            int bit = bitOf(key);
+            if (bit >= 2) {
+                set(bit, value);
+            } else {
+                subfields.put(key, value.toString());
+            }
+        }
+        return this;
+    }
+
+    public static IsoMessage of(Map<String, Object> data) {
+        return new IsoMessage().fromMap(data);
+    }
+
+    /**
+     * Bit number of a DEnnn key, or -1 if the key is not a plain DE key.
+     */
+    static int bitOf(String key) {
+        if (key.length() < 3 || key.length() > 5 || key.charAt(0) != 'D' || key.charAt(1) != 'E') return -1;
+        int bit = 0;
+        for (int i = 2; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            bit = bit * 10 + (c - '0');
+        }
+        return bit <= MAX_BIT ? bit : -1;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
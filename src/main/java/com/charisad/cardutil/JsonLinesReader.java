@@ -0,0 +1,263 @@
+package com.charisad.cardutil;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the JSON lines written by {@link JsonLinesWriter} back into {@link Iso8583#unpack} maps,
+ * ready for {@link MciIpm.IpmWriter}.
+ * <p>
+ * Each line is a flat JSON object. Whole numbers become Long, and values of datetime fields and ICC
+ * fields are turned back into LocalDateTime and byte[] using the bit config. Blank lines are skipped.
+ */
+public final class JsonLinesReader implements Closeable, Iterable<Map<String, Object>> {
+    private final BufferedReader in;
+    private final Map<Integer, BitConfig> config;
+    private JsonLinesWriter.BinaryEncoding binaryEncoding = JsonLinesWriter.BinaryEncoding.HEX;
+    private long lineNo;
+
+    // Parse position in the current line
+    private String line;
+    private int pos;
+
+    public JsonLinesReader(InputStream in) {
+        this(in, null);
+    }
+
+    public JsonLinesReader(InputStream in, Map<Integer, BitConfig> config) {
+        this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+        this.config = config == null ? Config.DEFAULT_BIT_CONFIG : config;
+    }
+
+    /**
+     * Encoding of binary values, the same as given to the writer.
+     */
+    public JsonLinesReader withBinaryEncoding(JsonLinesWriter.BinaryEncoding binaryEncoding) {
+        this.binaryEncoding = binaryEncoding;
+        return this;
+    }
+
+    /**
+     * @return the next record, or null at the end of the input
+     * @throws CardutilError if a line is not a flat JSON object
+     */
+    public Map<String, Object> readNext() throws IOException {
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            pos = 0;
+            skipSpace();
+            if (pos < line.length()) {
+                Map<String, Object> record = parseObject();
+                skipSpace();
+                if (pos < line.length()) throw error("Unexpected data after object");
+                return record;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> iterator() {
+        return new Iterator<>() {
+            private Map<String, Object> next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = readNext();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Map<String, Object> record = next;
+                next = null;
+                return record;
+            }
+        };
+    }
+
+    private Map<String, Object> parseObject() {
+        Map<String, Object> record = new HashMap<>();
+        expect('{');
+        skipSpace();
+        if (peek() == '}') {
+            pos++;
+            return record;
+        }
+        while (true) {
+            skipSpace();
+            String key = parseString();
+            skipSpace();
+            expect(':');
+            skipSpace();
+            Object value = parseValue();
+            if (value != null) record.put(key, typed(key, value));
+            skipSpace();
+            char c = next();
+            if (c == '}') return record;
+            if (c != ',') throw error("Expected , or }");
+        }
+    }
+
+    private Object parseValue() {
+        char c = peek();
+        if (c == '"') return parseString();
+        if (c == '-' || (c >= '0' && c <= '9')) return parseNumber();
+        if (line.startsWith("true", pos)) {
+            pos += 4;
+            return Boolean.TRUE;
+        }
+        if (line.startsWith("false", pos)) {
+            pos += 5;
+            return Boolean.FALSE;
+        }
+        if (line.startsWith("null", pos)) {
+            pos += 4;
+            return null;
+        }
+        throw error("Unsupported value");
+    }
+
+    private Object parseNumber() {
+        int start = pos;
+        boolean whole = true;
+        while (pos < line.length()) {
+            char c = line.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E') whole = false;
+            else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) break;
+            pos++;
+        }
+        String number = line.substring(start, pos);
+        try {
+            return whole ? (Object) Long.parseLong(number) : (Object) Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + number);
+        }
+    }
+
+    private String parseString() {
+        expect('"');
+        int start = pos;
+        // Fast path, no escapes
+        while (pos < line.length()) {
+            char c = line.charAt(pos);
+            if (c == '"') return line.substring(start, pos++);
+            if (c == '\\') break;
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder(line.length() - start).append(line, start, pos);
+        while (pos < line.length()) {
+            char c = line.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char escape = next();
+            switch (escape) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > line.length()) throw error("Invalid escape");
+                    try {
+                        sb.append((char) Integer.parseInt(line.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid escape");
+                    }
+                    pos += 4;
+                    break;
+                default: sb.append(escape);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Restore the type of DE values that JSON has no type for.
+     */
+    private Object typed(String key, Object value) {
+        if (!(value instanceof String) || !key.startsWith("DE")) return value;
+        int bit = PdsData.tagOf(key, 2);
+        BitConfig bitConfig = bit < 0 ? null : config.get(bit);
+        if (bitConfig == null) return value;
+        String text = (String) value;
+        if ("ICC".equals(bitConfig.fieldProcessor())) {
+            if (binaryEncoding == JsonLinesWriter.BinaryEncoding.HEX) {
+                if (!isHex(text)) throw error("Invalid binary value for " + key);
+                return Iso8583.hexStringToByteArray(text);
+            }
+            try {
+                return Base64.getDecoder().decode(text);
+            } catch (IllegalArgumentException e) {
+                throw error("Invalid binary value for " + key);
+            }
+        }
+        if ("datetime".equals(bitConfig.fieldJavaType()) && text.length() == 19 && text.charAt(10) == 'T') {
+            try {
+                return LocalDateTime.parse(text);
+            } catch (DateTimeParseException e) {
+                return value;
+            }
+        }
+        return value;
+    }
+
+    private static boolean isHex(String text) {
+        if (text.length() % 2 != 0) return false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')) return false;
+        }
+        return true;
+    }
+
+    private void skipSpace() {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) pos++;
+    }
+
+    private char peek() {
+        if (pos >= line.length()) throw error("Unexpected end of line");
+        return line.charAt(pos);
+    }
+
+    private char next() {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(char c) {
+        if (next() != c) throw error("Expected " + c);
+    }
+
+    private CardutilError error(String message) {
+        return new CardutilError(message + " at line " + lineNo + " column " + (pos + 1));
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
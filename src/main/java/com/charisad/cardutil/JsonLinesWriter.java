@@ -0,0 +1,234 @@
+package com.charisad.cardutil;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Writes records as JSON lines, one object per record.
+ * <p>
+ * Values keep their type: numbers are written as JSON numbers, LocalDateTime values as ISO strings
+ * (2026-02-19T12:00:00), binary values (DE55) as hex or base64 strings and anything else as a string.
+ * The encoder writes UTF-8 straight into a reusable buffer, digits and dates without formatting
+ * Strings, and escapes with a lookup table. {@link JsonLinesReader} reads the lines back.
+ */
+public final class JsonLinesWriter implements Closeable, Flushable {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+    // For ASCII characters: 0 written as is, 'u' written as \\u00XX, anything else written after a backslash
+    private static final byte[] ESCAPE = new byte[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) ESCAPE[c] = 'u';
+        ESCAPE['"'] = '"';
+        ESCAPE['\\'] = '\\';
+        ESCAPE['\b'] = 'b';
+        ESCAPE['\f'] = 'f';
+        ESCAPE['\n'] = 'n';
+        ESCAPE['\r'] = 'r';
+        ESCAPE['\t'] = 't';
+    }
+
+    public enum BinaryEncoding {
+        HEX, BASE64
+    }
+
+    private final OutputStream out;
+    private BinaryEncoding binaryEncoding = BinaryEncoding.HEX;
+    private byte[] buf = new byte[64 * 1024];
+    private int pos;
+    private long records;
+
+    public JsonLinesWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public JsonLinesWriter withBinaryEncoding(BinaryEncoding binaryEncoding) {
+        this.binaryEncoding = binaryEncoding;
+        return this;
+    }
+
+    public void write(Map<String, ?> record) throws IOException {
+        ensure(2);
+        buf[pos++] = '{';
+        boolean first = true;
+        for (Map.Entry<String, ?> entry : record.entrySet()) {
+            if (entry.getValue() == null) continue;
+            ensure(1);
+            if (!first) buf[pos++] = ',';
+            first = false;
+            writeString(entry.getKey());
+            ensure(1);
+            buf[pos++] = ':';
+            writeValue(entry.getValue());
+        }
+        ensure(2);
+        buf[pos++] = '}';
+        buf[pos++] = '\n';
+        records++;
+    }
+
+    public long records() {
+        return records;
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Double && !Double.isFinite((Double) value)
+                || value instanceof Float && !Float.isFinite((Float) value)) {
+            // JSON has no NaN or Infinity
+            writeString(value.toString());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            writeAscii(value.toString());
+        } else if (value instanceof byte[]) {
+            writeBinary((byte[]) value);
+        } else if (value instanceof LocalDateTime) {
+            writeDateTime((LocalDateTime) value);
+        } else {
+            writeString(value.toString());
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        pos = FieldCodecs.putDigits(value, 1, (byte) '0', buf, pos, buf.length);
+    }
+
+    private void writeDateTime(LocalDateTime value) throws IOException {
+        if (value.getYear() < 0 || value.getYear() > 9999 || value.getNano() != 0) {
+            writeString(value.toString());
+            return;
+        }
+        ensure(21);
+        buf[pos++] = '"';
+        pos = FieldCodecs.putDigits(value.getYear(), 4, (byte) '0', buf, pos, buf.length);
+        buf[pos++] = '-';
+        pos = FieldCodecs.putDigits(value.getMonthValue(), 2, (byte) '0', buf, pos, buf.length);
+        buf[pos++] = '-';
+        pos = FieldCodecs.putDigits(value.getDayOfMonth(), 2, (byte) '0', buf, pos, buf.length);
+        buf[pos++] = 'T';
+        pos = FieldCodecs.putDigits(value.getHour(), 2, (byte) '0', buf, pos, buf.length);
+        buf[pos++] = ':';
+        pos = FieldCodecs.putDigits(value.getMinute(), 2, (byte) '0', buf, pos, buf.length);
+        buf[pos++] = ':';
+        pos = FieldCodecs.putDigits(value.getSecond(), 2, (byte) '0', buf, pos, buf.length);
+        buf[pos++] = '"';
+    }
+
+    private void writeBinary(byte[] value) throws IOException {
+        if (binaryEncoding == BinaryEncoding.HEX) {
+            ensure(value.length * 2 + 2);
+            buf[pos++] = '"';
+            for (byte b : value) {
+                buf[pos++] = HEX[(b >> 4) & 0xF];
+                buf[pos++] = HEX[b & 0xF];
+            }
+            buf[pos++] = '"';
+            return;
+        }
+        ensure((value.length + 2) / 3 * 4 + 2);
+        buf[pos++] = '"';
+        int i = 0;
+        for (; i + 3 <= value.length; i += 3) {
+            int bits = (value[i] & 0xFF) << 16 | (value[i + 1] & 0xFF) << 8 | (value[i + 2] & 0xFF);
+            buf[pos++] = BASE64[bits >>> 18];
+            buf[pos++] = BASE64[(bits >>> 12) & 0x3F];
+            buf[pos++] = BASE64[(bits >>> 6) & 0x3F];
+            buf[pos++] = BASE64[bits & 0x3F];
+        }
+        if (i < value.length) {
+            int bits = (value[i] & 0xFF) << 16 | (i + 1 < value.length ? (value[i + 1] & 0xFF) << 8 : 0);
+            buf[pos++] = BASE64[bits >>> 18];
+            buf[pos++] = BASE64[(bits >>> 12) & 0x3F];
+            buf[pos++] = i + 1 < value.length ? BASE64[(bits >>> 6) & 0x3F] : (byte) '=';
+            buf[pos++] = '=';
+        }
+        buf[pos++] = '"';
+    }
+
+    private void writeAscii(String value) throws IOException {
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++) buf[pos++] = (byte) value.charAt(i);
+    }
+
+    private void writeString(String value) throws IOException {
+        // At most 6 bytes per char (\\u00XX) plus the quotes
+        ensure(value.length() * 6 + 2);
+        buf[pos++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                byte escape = ESCAPE[c];
+                if (escape == 0) {
+                    buf[pos++] = (byte) c;
+                } else if (escape == 'u') {
+                    buf[pos++] = '\\';
+                    buf[pos++] = 'u';
+                    buf[pos++] = '0';
+                    buf[pos++] = '0';
+                    buf[pos++] = HEX[c >> 4];
+                    buf[pos++] = HEX[c & 0xF];
+                } else {
+                    buf[pos++] = '\\';
+                    buf[pos++] = escape;
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | c >> 6);
+                buf[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | cp >> 18);
+                buf[pos++] = (byte) (0x80 | (cp >> 12) & 0x3F);
+                buf[pos++] = (byte) (0x80 | (cp >> 6) & 0x3F);
+                buf[pos++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are written as ?, as String.getBytes does
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | c >> 12);
+                buf[pos++] = (byte) (0x80 | (c >> 6) & 0x3F);
+                buf[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        buf[pos++] = '"';
+    }
+
+    private void ensure(int length) throws IOException {
+        if (pos + length <= buf.length) return;
+        flushBuffer();
+        if (length > buf.length) buf = Arrays.copyOf(buf, Math.max(length, buf.length * 2));
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -4,14 +4,105 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.NoSuchElementException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 public class MciIpm {
     private static final Logger LOGGER = LoggerFactory.getLogger(MciIpm.class);
+    private static final int BLOCK_SIZE = 1014;
+    private static final int BLOCK_DATA_SIZE = 1012;
+    private static final int MAX_RECORD_LENGTH = 100000;
+    private static final int INFLATE_BUFFER_SIZE = 256 * 1024;
+
+    // --- Compressed files ---
+
+    /**
+     * Open a file for reading. Gzip files and zip archives are detected by their leading bytes and
+     * inflated as they are read, a zip archive gives its first file entry. Other files are read as is.
+     */
+    public static InputStream openInput(Path path) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(path), INFLATE_BUFFER_SIZE);
+        try {
+            in.mark(4);
+            byte[] magic = in.readNBytes(4);
+            in.reset();
+            if (magic.length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+                return new GZIPInputStream(in, INFLATE_BUFFER_SIZE);
+            }
+            if (magic.length == 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4) {
+                ZipInputStream zip = new ZipInputStream(in);
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (!entry.isDirectory()) return zip;
+                }
+                throw new IOException("No file entry in zip archive " + path);
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a file for reading with {@link #openInput(Path)}, reading and inflating on a background
+     * thread so decompression overlaps with decoding, see {@link ReadAheadInputStream}.
+     */
+    public static InputStream openInput(Path path, int depth, int bufferSize) throws IOException {
+        return new ReadAheadInputStream(Channels.newChannel(openInput(path)), depth, bufferSize);
+    }
+
+    /**
+     * Open a file for writing, compressed when the name ends .gz (gzip) or .zip (a zip archive with
+     * one entry named after the file without .zip).
+     */
+    public static OutputStream openOutput(Path path) throws IOException {
+        OutputStream out = Files.newOutputStream(path);
+        String name = path.getFileName().toString();
+        String lower = name.toLowerCase();
+        if (lower.endsWith(".gz")) {
+            return new GZIPOutputStream(out, INFLATE_BUFFER_SIZE);
+        }
+        if (lower.endsWith(".zip")) {
+            ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, INFLATE_BUFFER_SIZE));
+            zip.putNextEntry(new ZipEntry(name.substring(0, name.length() - 4)));
+            return zip;
+        }
+        return out;
+    }
+
+    /**
+     * Open a file for writing as a channel, see {@link #openOutput(Path)}. Plain files are written
+     * through a FileChannel, compressed files through the compressing stream.
+     */
+    public static WritableByteChannel openOutputChannel(Path path) throws IOException {
+        String lower = path.getFileName().toString().toLowerCase();
+        if (lower.endsWith(".gz") || lower.endsWith(".zip")) return Channels.newChannel(openOutput(path));
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
 
     // --- Streams for 1014 Blocking ---
 
@@ -25,7 +116,11 @@ public class MciIpm {
 
         @Override
         public void write(int b) throws IOException {
-            write(new byte[]{(byte) b});
+            out.write(b);
+            if (--remainingChars == 0) {
+                out.write(PAD, 0, 2);
+                remainingChars = 1012;
+            }
         }
 
         @Override
@@ -41,24 +136,30 @@ public class MciIpm {
                 remainingChars -= chunk;
                 
                 if (remainingChars == 0) {
-                    out.write(PAD_CHAR);
-                    out.write(PAD_CHAR);
+                    out.write(PAD, 0, 2);
                     remainingChars = 1012;
                 }
             }
         }
         
         public void close() throws IOException {
-             // Finalise
-             for (int i = 0; i < remainingChars + 2; i++) {
-                 out.write(PAD_CHAR);
-             }
+             // Finalise, pad out the last block
+             out.write(PAD, 0, remainingChars + 2);
              super.close();
         }
     }
 
+    // A block of pad characters, written in bulk
+    private static final byte[] PAD = new byte[BLOCK_SIZE];
+
+    static {
+        Arrays.fill(PAD, (byte) 0x40);
+    }
+
     public static class Unblock1014InputStream extends FilterInputStream {
-        private byte[] buffer = new byte[0];
+        // One block is read at a time into the same buffer, only the first 1012 bytes are data
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private int limit = 0;
         private int bufferPos = 0;
 
         public Unblock1014InputStream(InputStream in) {
@@ -67,9 +168,11 @@ public class MciIpm {
 
         @Override
         public int read() throws IOException {
-            byte[] b = new byte[1];
-            int n = read(b, 0, 1);
-            return n == -1 ? -1 : b[0] & 0xFF;
+            if (bufferPos >= limit) {
+                fillBuffer();
+                if (limit == 0) return -1;
+            }
+            return block[bufferPos++] & 0xFF;
         }
 
         @Override
@@ -78,16 +181,16 @@ public class MciIpm {
             int totalRead = 0;
             
             while (totalRead < len) {
-                if (bufferPos >= buffer.length) {
+                if (bufferPos >= limit) {
                     fillBuffer();
-                    if (buffer.length == 0) { // EOF
+                    if (limit == 0) { // EOF
                         return totalRead == 0 ? -1 : totalRead;
                     }
                 }
                 
-                int available = buffer.length - bufferPos;
+                int available = limit - bufferPos;
                 int toCopy = Math.min(len - totalRead, available);
-                System.arraycopy(buffer, bufferPos, b, off + totalRead, toCopy);
+                System.arraycopy(block, bufferPos, b, off + totalRead, toCopy);
                 bufferPos += toCopy;
                 totalRead += toCopy;
             }
@@ -95,15 +198,9 @@ public class MciIpm {
         }
         
         private void fillBuffer() throws IOException {
-            byte[] block = new byte[1014];
             int n = readFully(in, block);
-            if (n < 1014) {
-                buffer = new byte[0]; // EOF or partial block (error?)
-                return;
-            }
-            // Take only 1012
-            buffer = new byte[1012];
-            System.arraycopy(block, 0, buffer, 0, 1012);
+            // EOF or partial block
+            limit = n < BLOCK_SIZE ? 0 : BLOCK_DATA_SIZE;
             bufferPos = 0;
         }
         
@@ -118,17 +215,141 @@ public class MciIpm {
         }
     }
 
+    /**
+     * InputStream that reads a channel ahead of the consumer on a background thread.
+     * <p>
+     * The thread fills a ring of direct buffers from the channel while the consumer reads the buffer
+     * filled before, so reading from slow (e.g. network mounted) storage overlaps with unblocking and
+     * decoding. depth buffers of bufferSize bytes are allocated up front and reused.
+     */
+    public static class ReadAheadInputStream extends InputStream {
+        private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+        private final ReadableByteChannel channel;
+        private final BlockingQueue<ByteBuffer> empty;
+        private final BlockingQueue<ByteBuffer> filled;
+        private final Thread reader;
+        private volatile IOException error;
+        private volatile boolean closed;
+        private ByteBuffer current;
+
+        public ReadAheadInputStream(ReadableByteChannel channel, int depth, int bufferSize) {
+            if (depth < 1 || bufferSize < 1) throw new IllegalArgumentException("Invalid read ahead depth or buffer size");
+            this.channel = channel;
+            this.empty = new ArrayBlockingQueue<>(depth);
+            // Room for every buffer plus the end marker, so the reader never blocks on the marker
+            this.filled = new ArrayBlockingQueue<>(depth + 1);
+            for (int i = 0; i < depth; i++) empty.add(ByteBuffer.allocateDirect(bufferSize));
+            this.reader = new Thread(this::fill, "ipm-read-ahead");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        public static ReadAheadInputStream open(Path path, int depth, int bufferSize) throws IOException {
+            return new ReadAheadInputStream(FileChannel.open(path, StandardOpenOption.READ), depth, bufferSize);
+        }
+
+        private void fill() {
+            try {
+                boolean end = false;
+                while (!end && !closed) {
+                    ByteBuffer buffer = empty.take();
+                    buffer.clear();
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer) < 0) {
+                            end = true;
+                            break;
+                        }
+                    }
+                    buffer.flip();
+                    if (buffer.hasRemaining()) filled.put(buffer);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                if (!closed) error = e;
+            }
+            filled.offer(END);
+        }
+
+        private boolean nextBuffer() throws IOException {
+            if (current != null && current.hasRemaining()) return true;
+            if (current == END) return false;
+            if (current != null) empty.offer(current);
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for read ahead");
+            }
+            if (current == END && error != null) throw error;
+            return current != END;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return nextBuffer() ? current.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!nextBuffer()) return -1;
+            int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            reader.interrupt();
+            channel.close();
+        }
+    }
+
+    /**
+     * Receives VBS records in a buffer that is reused for the next record.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        /**
+         * @param buf      buffer holding the record, only valid during the call
+         * @param offset   start of the record in buf
+         * @param length   record length, without the VBS length header
+         * @param recordNo number of the record in the file, starting at 0
+         */
+        void record(byte[] buf, int offset, int length, long recordNo) throws IOException;
+    }
+
     // --- VBS Reader/Writer ---
 
     public static class VbsReader implements Closeable, Iterable<byte[]> {
         private final DataInputStream in;
         private byte[] nextRecord;
+        private long position;
+        private long recordOffset = -1;
+        private long recordCount;
+        private int maxRecordLength = MAX_RECORD_LENGTH;
+        private byte[] buffer;
 
         public VbsReader(InputStream in, boolean blocked) {
             InputStream is = blocked ? new Unblock1014InputStream(in) : in;
             this.in = new DataInputStream(is);
         }
 
+        /**
+         * Reader for a file read ahead on a background thread, see {@link ReadAheadInputStream}.
+         */
+        public static VbsReader readAhead(Path path, boolean blocked, int depth, int bufferSize) throws IOException {
+            return new VbsReader(ReadAheadInputStream.open(path, depth, bufferSize), blocked);
+        }
+
         @Override
         public Iterator<byte[]> iterator() {
             return new Iterator<byte[]>() {
@@ -153,18 +374,85 @@ public class MciIpm {
             };
         }
 
+        /**
+         * Records longer than this are reported as an invalid length, 100000 by default.
+         */
+        public VbsReader withMaxRecordLength(int maxRecordLength) {
+            if (maxRecordLength < 1) throw new IllegalArgumentException("Invalid max record length " + maxRecordLength);
+            this.maxRecordLength = maxRecordLength;
+            return this;
+        }
+
+        /**
+         * Pass each remaining record to the handler in a reused buffer, with no allocation per record.
+         *
+         * @return number of records handled
+         */
+        public long forEachRecord(RecordHandler handler) throws IOException {
+            long count = 0;
+            int len;
+            while ((len = readBuffered()) > 0) {
+                handler.record(buffer, 0, len, recordCount - 1);
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * Read the next record into the reused {@link #buffer()}.
+         *
+         * @return the record length, or -1 at the end of the data
+         */
+        int readBuffered() throws IOException {
+            int len = nextLength();
+            if (len < 0) return -1;
+            if (buffer == null || buffer.length < len) buffer = new byte[Math.max(len, 8192)];
+            try {
+                in.readFully(buffer, 0, len);
+            } catch (EOFException e) {
+                return -1;
+            }
+            moveOver(len);
+            return len;
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        /**
+         * @return the next record length, or -1 at the end of the data
+         */
+        private int nextLength() throws IOException {
+            int len;
+            try {
+                len = in.readInt(); // reads 4 bytes big endian
+            } catch (EOFException e) {
+                return -1;
+            }
+            if (len == 0) return -1; // End of VBS
+
+            // Sanity check max length
+            if (len < 0 || len > maxRecordLength) {
+                throw new IOException("Invalid VBS record length: " + len);
+            }
+            return len;
+        }
+
+        private void moveOver(int len) {
+            recordOffset = position;
+            position += 4 + len;
+            recordCount++;
+        }
+
         public byte[] readNext() throws IOException {
             try {
-                int len = in.readInt(); // reads 4 bytes big endian
-                if (len == 0) return null; // End of VBS
-                
-                // Sanity check max length (from config, default 6000)
-                if (len < 0 || len > 100000) { // arbitrary safe limit for sanity
-                    throw new IOException("Invalid VBS record length: " + len);
-                }
+                int len = nextLength();
+                if (len < 0) return null;
                 
                 byte[] data = new byte[len];
                 in.readFully(data);
+                moveOver(len);
                 
                 // Return full record including 4 byte length header to match Python logic
                 // Python: self.last_record = record_length_raw + record
@@ -201,6 +489,13 @@ public class MciIpm {
             }
         }
 
+        /**
+         * @return offset of the last record read in the unblocked VBS data, its length header included.
+         */
+        public long recordOffset() {
+            return recordOffset;
+        }
+
         @Override
         public void close() throws IOException {
             in.close();
@@ -212,12 +507,17 @@ public class MciIpm {
 
         public VbsWriter(OutputStream out, boolean blocked) {
             OutputStream os = blocked ? new Block1014OutputStream(out) : out;
-            this.out = new DataOutputStream(os);
+            // Buffered so the length and data of a record reach the block stream as one write
+            this.out = new DataOutputStream(new BufferedOutputStream(os, 64 * 1024));
         }
 
         public void write(byte[] record) throws IOException {
-            out.writeInt(record.length);
-            out.write(record);
+            write(record, 0, record.length);
+        }
+
+        public void write(byte[] record, int offset, int length) throws IOException {
+            out.writeInt(length);
+            out.write(record, offset, length);
         }
 
         @Override
@@ -227,12 +527,338 @@ public class MciIpm {
         }
     }
     
+    /**
+     * VBS writer that assembles the file in a large reusable buffer and writes it to a channel.
+     * <p>
+     * Blocking is applied in memory as records are copied in, the 2 pad characters at the end of each
+     * block and the padding of the last block are bulk copies, so the channel sees one write per buffer.
+     * The output is the same as {@link VbsWriter}.
+     */
+    public static class VbsChannelWriter implements Closeable {
+        static final int DEFAULT_BUFFER_SIZE = BLOCK_SIZE * 1024;
+
+        private final WritableByteChannel channel;
+        private final boolean blocked;
+        private final ByteBuffer buffer;
+        private final byte[] header = new byte[4];
+        private int remainingChars = BLOCK_DATA_SIZE;
+
+        public VbsChannelWriter(WritableByteChannel channel, boolean blocked) {
+            this(channel, blocked, DEFAULT_BUFFER_SIZE);
+        }
+
+        public VbsChannelWriter(WritableByteChannel channel, boolean blocked, int bufferSize) {
+            if (bufferSize < BLOCK_SIZE) throw new IllegalArgumentException("Buffer size must be at least " + BLOCK_SIZE);
+            this.channel = channel;
+            this.blocked = blocked;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        /**
+         * Open a file for writing, compressed when the name ends .gz or .zip, see {@link #openOutput(Path)}.
+         */
+        public static VbsChannelWriter open(Path path, boolean blocked) throws IOException {
+            return new VbsChannelWriter(openOutputChannel(path), blocked);
+        }
+
+        public void write(byte[] record) throws IOException {
+            write(record, 0, record.length);
+        }
+
+        public void write(byte[] record, int offset, int length) throws IOException {
+            BitUtils.putInt(header, 0, length);
+            writeVbs(header, 0, 4);
+            writeVbs(record, offset, length);
+        }
+
+        /**
+         * Append unblocked VBS data, records already framed with their length.
+         */
+        void writeVbs(byte[] data, int offset, int length) throws IOException {
+            if (!blocked) {
+                put(data, offset, length);
+                return;
+            }
+            while (length > 0) {
+                int chunk = Math.min(length, remainingChars);
+                put(data, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+                remainingChars -= chunk;
+                if (remainingChars == 0) {
+                    put(PAD, 0, 2);
+                    remainingChars = BLOCK_DATA_SIZE;
+                }
+            }
+        }
+
+        private void put(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!buffer.hasRemaining()) flush();
+                int chunk = Math.min(length, buffer.remaining());
+                buffer.put(data, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                BitUtils.putInt(header, 0, 0); // Zero length record terminator
+                writeVbs(header, 0, 4);
+                if (blocked) put(PAD, 0, remainingChars + 2);
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    // --- Split and merge ---
+
+    private static VbsChannelWriter openVbsOutput(Path path, boolean blocked, int bufferSize) throws IOException {
+        return new VbsChannelWriter(openOutputChannel(path), blocked, bufferSize);
+    }
+
+    /**
+     * Splits an IPM file into parts at the VBS record level. Records are copied as they are, each part
+     * is a complete file with its own terminator and, when blocked, 1014 padding.
+     */
+    public static class IpmSplitter {
+        private final Path input;
+        private final boolean blocked;
+        private final Charset encoding;
+        private final CompiledIso8583Codec codec;
+        private boolean outputBlocked;
+        private IntFunction<Path> output;
+
+        public IpmSplitter(Path input, boolean blocked) {
+            this(input, blocked, StandardCharsets.ISO_8859_1, null);
+        }
+
+        public IpmSplitter(Path input, boolean blocked, Charset encoding, Map<Integer, BitConfig> config) {
+            this.input = input;
+            this.blocked = blocked;
+            this.outputBlocked = blocked;
+            this.encoding = encoding;
+            this.codec = CompiledIso8583Codec.of(config);
+            this.output = part -> Path.of(input + String.format(".%03d", part));
+        }
+
+        /**
+         * Write blocked or unblocked parts, by default the same as the input.
+         */
+        public IpmSplitter withOutputBlocked(boolean outputBlocked) {
+            this.outputBlocked = outputBlocked;
+            return this;
+        }
+
+        /**
+         * @param output path of each part from its number, starting at 0. By default the input path
+         *               followed by .000, .001 and so on
+         */
+        public IpmSplitter withOutput(IntFunction<Path> output) {
+            this.output = output;
+            return this;
+        }
+
+        /**
+         * Start a new part every records records.
+         */
+        public List<Path> byRecordCount(long records) throws IOException {
+            if (records < 1) throw new IllegalArgumentException("Invalid record count " + records);
+            long[] count = new long[1];
+            return sequential(length -> {
+                if (count[0]++ < records) return false;
+                count[0] = 1;
+                return true;
+            });
+        }
+
+        /**
+         * Start a new part before a record that would take the part past bytes. A part holds at least
+         * one record, so a record larger than bytes gets a part of its own.
+         */
+        public List<Path> bySize(long bytes) throws IOException {
+            if (bytes < BLOCK_SIZE) throw new IllegalArgumentException("Part size must be at least " + BLOCK_SIZE);
+            long[] data = new long[1];
+            return sequential(length -> {
+                data[0] += 4 + length;
+                if (data[0] == 4 + length || fileSize(data[0]) <= bytes) return false;
+                data[0] = 4 + length;
+                return true;
+            });
+        }
+
+        /**
+         * Hash a field to choose the part, so records with the same key, e.g. DE2, go to the same part.
+         * The hash is of the raw field bytes and is the same on every run. Records without the field go
+         * to part 0. All parts are written, empty ones included.
+         */
+        public List<Path> byHash(int parts, int bit) throws IOException {
+            if (parts < 1) throw new IllegalArgumentException("Invalid part count " + parts);
+            VbsChannelWriter[] writers = new VbsChannelWriter[parts];
+            List<Path> paths = new ArrayList<>(parts);
+            try {
+                for (int i = 0; i < parts; i++) {
+                    paths.add(output.apply(i));
+                    writers[i] = openVbsOutput(paths.get(i), outputBlocked, BLOCK_SIZE * 64);
+                }
+                try (VbsReader reader = new VbsReader(openInput(input), blocked)) {
+                    reader.forEachRecord((buf, offset, length, recordNo) -> {
+                        Iso8583View view = codec.view(buf, offset, length, encoding, false);
+                        int part = 0;
+                        if (view.has(bit)) {
+                            int hash = 1;
+                            int start = view.fieldOffset(bit);
+                            for (int i = start; i < start + view.fieldLength(bit); i++) hash = 31 * hash + buf[i];
+                            part = Math.floorMod(hash, parts);
+                        }
+                        writers[part].write(buf, offset, length);
+                    });
+                }
+            } finally {
+                closeAll(writers);
+            }
+            return paths;
+        }
+
+        // Size of a file holding data bytes of VBS records, with the terminator and block padding
+        private long fileSize(long data) {
+            return outputBlocked ? ((data + 4) / BLOCK_DATA_SIZE + 1) * BLOCK_SIZE : data + 4;
+        }
+
+        @FunctionalInterface
+        private interface Boundary {
+            boolean newPart(int length);
+        }
+
+        private List<Path> sequential(Boundary boundary) throws IOException {
+            List<Path> paths = new ArrayList<>();
+            VbsChannelWriter[] writer = new VbsChannelWriter[1];
+            try (VbsReader reader = new VbsReader(openInput(input), blocked)) {
+                reader.forEachRecord((buf, offset, length, recordNo) -> {
+                    if (boundary.newPart(length) || writer[0] == null) {
+                        if (writer[0] != null) writer[0].close();
+                        paths.add(output.apply(paths.size()));
+                        writer[0] = openVbsOutput(paths.get(paths.size() - 1), outputBlocked, VbsChannelWriter.DEFAULT_BUFFER_SIZE);
+                    }
+                    writer[0].write(buf, offset, length);
+                });
+            } finally {
+                closeAll(writer);
+            }
+            return paths;
+        }
+    }
+
+    private static void closeAll(Closeable[] closeables) throws IOException {
+        IOException error = null;
+        for (Closeable closeable : closeables) {
+            try {
+                if (closeable != null) closeable.close();
+            } catch (IOException e) {
+                if (error == null) error = e; else error.addSuppressed(e);
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    /**
+     * Concatenate IPM files at the VBS record level, records are copied as they are.
+     *
+     * @return number of records written
+     */
+    public static long concat(List<Path> inputs, boolean blocked, Path output, boolean outputBlocked) throws IOException {
+        long count = 0;
+        try (VbsChannelWriter writer = openVbsOutput(output, outputBlocked, VbsChannelWriter.DEFAULT_BUFFER_SIZE)) {
+            for (Path input : inputs) {
+                try (VbsReader reader = new VbsReader(openInput(input), blocked)) {
+                    count += reader.forEachRecord((buf, offset, length, recordNo) -> writer.write(buf, offset, length));
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Merge IPM files that are each in order into one file in order, records are copied as they are.
+     * Equal records are taken from the inputs in the order given.
+     *
+     * @param order order of the records, e.g. {@link #fieldOrder(int)}
+     * @return number of records written
+     */
+    public static long merge(List<Path> inputs, boolean blocked, Path output, boolean outputBlocked,
+                             Comparator<Iso8583View> order, Charset encoding, Map<Integer, BitConfig> config) throws IOException {
+        CompiledIso8583Codec codec = CompiledIso8583Codec.of(config);
+        VbsReader[] readers = new VbsReader[inputs.size()];
+        PriorityQueue<MergeHead> heads = new PriorityQueue<>((a, b) -> {
+            int c = order.compare(a.view, b.view);
+            return c != 0 ? c : Integer.compare(a.input, b.input);
+        });
+        long count = 0;
+        try (VbsChannelWriter writer = openVbsOutput(output, outputBlocked, VbsChannelWriter.DEFAULT_BUFFER_SIZE)) {
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = new VbsReader(openInput(inputs.get(i)), blocked);
+                MergeHead head = new MergeHead(i);
+                if (head.next(readers[i], codec, encoding)) heads.add(head);
+            }
+            MergeHead head;
+            while ((head = heads.poll()) != null) {
+                writer.write(head.record);
+                count++;
+                if (head.next(readers[head.input], codec, encoding)) heads.add(head);
+            }
+        } finally {
+            closeAll(readers);
+        }
+        return count;
+    }
+
+    private static final class MergeHead {
+        final int input;
+        byte[] record;
+        Iso8583View view;
+
+        MergeHead(int input) {
+            this.input = input;
+        }
+
+        boolean next(VbsReader reader, CompiledIso8583Codec codec, Charset encoding) throws IOException {
+            record = reader.readNext();
+            if (record == null) return false;
+            view = codec.view(record, encoding, false);
+            return true;
+        }
+    }
+
+    /**
+     * Order by the raw bytes of a field, for fixed length fields such as DE71 or DE12 this is the order
+     * of the values. Records without the field come first.
+     */
+    public static Comparator<Iso8583View> fieldOrder(int bit) {
+        return (a, b) -> {
+            if (!a.has(bit) || !b.has(bit)) return Boolean.compare(a.has(bit), b.has(bit));
+            return Arrays.compareUnsigned(a.array(), a.fieldOffset(bit), a.fieldOffset(bit) + a.fieldLength(bit),
+                    b.array(), b.fieldOffset(bit), b.fieldOffset(bit) + b.fieldLength(bit));
+        };
+    }
+
     // --- IPM Reader/Writer ---
 
     public static class IpmReader implements Closeable, Iterable<Map<String, Object>> {
         private final VbsReader vbsReader;
         private final Charset encoding;
-        private final Map<Integer, BitConfig> config;
+        private final CompiledIso8583Codec codec;
+        private FieldProjection projection;
+        private RecordIndex.Builder index;
 
         public IpmReader(InputStream in, boolean blocked) {
             this(in, blocked, StandardCharsets.ISO_8859_1, null);
@@ -241,7 +867,61 @@ public class MciIpm {
         public IpmReader(InputStream in, boolean blocked, Charset encoding, Map<Integer, BitConfig> config) {
             this.vbsReader = new VbsReader(in, blocked);
             this.encoding = encoding;
-            this.config = config;
+            this.codec = CompiledIso8583Codec.of(config);
+        }
+
+        /**
+         * Reader for a file read ahead on a background thread, see {@link ReadAheadInputStream}.
+         *
+         * @param depth      number of buffers read ahead
+         * @param bufferSize size of each buffer, e.g. 1MB
+         */
+        public static IpmReader readAhead(Path path, boolean blocked, Charset encoding, Map<Integer, BitConfig> config,
+                                          int depth, int bufferSize) throws IOException {
+            return new IpmReader(ReadAheadInputStream.open(path, depth, bufferSize), blocked, encoding, config);
+        }
+
+        /**
+         * Only decode the given fields for each record, see {@link FieldProjection}.
+         */
+        public IpmReader withProjection(FieldProjection projection) {
+            this.projection = projection;
+            return this;
+        }
+
+        /**
+         * Add each record read to the index, see {@link RecordIndex}.
+         */
+        public IpmReader withIndex(RecordIndex.Builder index) {
+            this.index = index;
+            return this;
+        }
+
+        /**
+         * Records longer than this are reported as an invalid length, 100000 by default.
+         */
+        public IpmReader withMaxRecordLength(int maxRecordLength) {
+            vbsReader.withMaxRecordLength(maxRecordLength);
+            return this;
+        }
+
+        /**
+         * Pass each remaining undecoded record to the handler in a reused buffer, see
+         * {@link VbsReader#forEachRecord}.
+         *
+         * @return number of records handled
+         */
+        public long forEachRecord(RecordHandler handler) throws IOException {
+            if (index == null) return vbsReader.forEachRecord(handler);
+            return vbsReader.forEachRecord((buf, offset, length, recordNo) -> {
+                addToIndex(index.isKeyed() ? messageNumber(codec, buf, offset, length, encoding) : null);
+                handler.record(buf, offset, length, recordNo);
+            });
+        }
+
+        private void addToIndex(Object messageNumber) {
+            if (index == null) return;
+            index.add(vbsReader.recordOffset(), messageNumber instanceof Number ? ((Number) messageNumber).longValue() : -1);
         }
 
         @Override
@@ -256,22 +936,891 @@ public class MciIpm {
                 @Override
                 public Map<String, Object> next() {
                     byte[] data = vbsIter.next();
-                    return Iso8583.unpack(data, config, encoding, false);
+                    Map<String, Object> record = codec.unpack(data, encoding, false, projection);
+                    if (index != null) {
+                        addToIndex(index.isKeyed() && !record.containsKey("DE71")
+                                ? messageNumber(codec, data, 0, data.length, encoding) : record.get("DE71"));
+                    }
+                    return record;
                 }
             };
         }
 
+        /**
+         * Read the next record into a reusable message, resetting it first. The message reads from a
+         * buffer that is reused for the following record.
+         *
+         * @return false at the end of the file
+         */
+        public boolean next(IsoMessage message) throws IOException {
+            int length = vbsReader.readBuffered();
+            if (length < 0) return false;
+            codec.unpackInto(vbsReader.buffer(), 0, length, encoding, false, message);
+            if (index != null) addToIndex(index.isKeyed() ? message.get(71) : null);
+            return true;
+        }
+
+        /**
+         * Decoded records as a stream. The stream reads the file in batches of records, so a parallel
+         * stream decodes the batches on the fork join pool while records are read on one thread.
+         * Closing the stream closes the reader.
+         */
+        public Stream<Map<String, Object>> stream() {
+            return stream(256);
+        }
+
+        public Stream<Map<String, Object>> stream(int batchSize) {
+            return StreamSupport.stream(new BatchSpliterator<>(this::readIndexed,
+                    data -> codec.unpack(data, encoding, false, projection), batchSize), false).onClose(this::closeQuietly);
+        }
+
+        // Next raw record, added to the index when there is one
+        private byte[] readIndexed() throws IOException {
+            byte[] data = vbsReader.readNext();
+            if (data != null && index != null) {
+                addToIndex(index.isKeyed() ? messageNumber(codec, data, 0, data.length, encoding) : null);
+            }
+            return data;
+        }
+
+        private void closeQuietly() {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Iterate the records as lazy {@link Iso8583View}s rather than fully decoded maps.
+         */
+        public Iterable<Iso8583View> views() {
+            return () -> {
+                final Iterator<byte[]> vbsIter = vbsReader.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return vbsIter.hasNext();
+                    }
+
+                    @Override
+                    public Iso8583View next() {
+                        Iso8583View view = codec.view(vbsIter.next(), encoding, false);
+                        if (index != null) addToIndex(index.isKeyed() ? view.get(71) : null);
+                        return view;
+                    }
+                };
+            };
+        }
+
         @Override
         public void close() throws IOException {
             vbsReader.close();
         }
     }
 
+    // DE71 of a record, for index keys when the record is not decoded
+    private static Object messageNumber(CompiledIso8583Codec codec, byte[] data, int offset, int length, Charset encoding) {
+        try {
+            return codec.view(data, offset, length, encoding, false).get(71);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Offsets of the records of an IPM file, for random access with {@link MappedIpmReader#seek}.
+     * <p>
+     * The index holds the file offset of each record's length header, optionally with its DE71 message
+     * number, in primitive arrays. Build it during any read pass with {@link IpmReader#withIndex} or
+     * {@link MappedIpmReader#withIndex}, and keep it beside the file with {@link #write(Path)}.
+     * Record numbers start at 0.
+     */
+    public static final class RecordIndex {
+        private static final int MAGIC = 0x49504D58; // IPMX
+        private static final int VERSION = 1;
+
+        private final boolean blocked;
+        private final long[] offsets;
+        private final long[] messageNumbers;
+        private final boolean sortedMessageNumbers;
+
+        private RecordIndex(boolean blocked, long[] offsets, long[] messageNumbers) {
+            this.blocked = blocked;
+            this.offsets = offsets;
+            this.messageNumbers = messageNumbers;
+            boolean sorted = messageNumbers != null;
+            for (int i = 1; sorted && i < messageNumbers.length; i++) sorted = messageNumbers[i - 1] <= messageNumbers[i];
+            this.sortedMessageNumbers = sorted;
+        }
+
+        /**
+         * @param keyed also record the DE71 message number of each record
+         */
+        public static Builder builder(boolean blocked, boolean keyed) {
+            return new Builder(blocked, keyed);
+        }
+
+        /**
+         * @return the sidecar index path for an IPM file, the file name with .idx appended.
+         */
+        public static Path sidecar(Path ipmFile) {
+            return ipmFile.resolveSibling(ipmFile.getFileName() + ".idx");
+        }
+
+        public int size() {
+            return offsets.length;
+        }
+
+        public boolean isBlocked() {
+            return blocked;
+        }
+
+        /**
+         * @return file offset of the record's length header.
+         */
+        public long offset(int recordNo) {
+            return offsets[recordNo];
+        }
+
+        /**
+         * @return offset of the record's length header in the unblocked VBS data.
+         */
+        public long dataOffset(int recordNo) {
+            long offset = offsets[recordNo];
+            return blocked ? offset - 2 * (offset / BLOCK_SIZE) : offset;
+        }
+
+        public boolean isKeyed() {
+            return messageNumbers != null;
+        }
+
+        /**
+         * @return DE71 of the record, or -1 if it had none.
+         */
+        public long messageNumber(int recordNo) {
+            if (messageNumbers == null) throw new IllegalStateException("Index has no message numbers");
+            return messageNumbers[recordNo];
+        }
+
+        /**
+         * @return number of the first record with the DE71 message number, or -1.
+         */
+        public int findMessageNumber(long messageNumber) {
+            if (messageNumbers == null) throw new IllegalStateException("Index has no message numbers");
+            if (sortedMessageNumbers) {
+                int i = Arrays.binarySearch(messageNumbers, messageNumber);
+                if (i < 0) return -1;
+                while (i > 0 && messageNumbers[i - 1] == messageNumber) i--;
+                return i;
+            }
+            for (int i = 0; i < messageNumbers.length; i++) {
+                if (messageNumbers[i] == messageNumber) return i;
+            }
+            return -1;
+        }
+
+        public void write(Path path) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeBoolean(blocked);
+                out.writeBoolean(messageNumbers != null);
+                out.writeInt(offsets.length);
+                for (long offset : offsets) out.writeLong(offset);
+                if (messageNumbers != null) {
+                    for (long messageNumber : messageNumbers) out.writeLong(messageNumber);
+                }
+            }
+        }
+
+        public static RecordIndex read(Path path) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Not an IPM record index: " + path);
+                }
+                boolean blocked = in.readBoolean();
+                boolean keyed = in.readBoolean();
+                long[] offsets = new long[in.readInt()];
+                for (int i = 0; i < offsets.length; i++) offsets[i] = in.readLong();
+                long[] messageNumbers = null;
+                if (keyed) {
+                    messageNumbers = new long[offsets.length];
+                    for (int i = 0; i < messageNumbers.length; i++) messageNumbers[i] = in.readLong();
+                }
+                return new RecordIndex(blocked, offsets, messageNumbers);
+            }
+        }
+
+        /**
+         * Collects record offsets as a file is read. Records must be added in file order.
+         */
+        public static final class Builder {
+            private final boolean blocked;
+            private final boolean keyed;
+            private long[] offsets = new long[1024];
+            private long[] messageNumbers;
+            private int count;
+
+            private Builder(boolean blocked, boolean keyed) {
+                this.blocked = blocked;
+                this.keyed = keyed;
+                if (keyed) messageNumbers = new long[offsets.length];
+            }
+
+            public boolean isKeyed() {
+                return keyed;
+            }
+
+            /**
+             * @param dataOffset    offset of the record's length header in the unblocked VBS data
+             * @param messageNumber DE71, or -1 if unknown
+             * @throws IllegalArgumentException if the record is not after the last one added
+             */
+            public Builder add(long dataOffset, long messageNumber) {
+                long offset = blocked ? dataOffset + 2 * (dataOffset / BLOCK_DATA_SIZE) : dataOffset;
+                if (dataOffset < 0 || count > 0 && offset <= offsets[count - 1]) {
+                    throw new IllegalArgumentException("Record offset " + dataOffset + " is not after the previous record");
+                }
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    if (keyed) messageNumbers = Arrays.copyOf(messageNumbers, count * 2);
+                }
+                offsets[count] = offset;
+                if (keyed) messageNumbers[count] = messageNumber;
+                count++;
+                return this;
+            }
+
+            public int size() {
+                return count;
+            }
+
+            public RecordIndex build() {
+                return new RecordIndex(blocked, Arrays.copyOf(offsets, count), keyed ? Arrays.copyOf(messageNumbers, count) : null);
+            }
+        }
+    }
+
+    /**
+     * Source of undecoded VBS records.
+     */
+    interface RecordSource {
+        /**
+         * @return the next record, or null at the end of the file
+         */
+        byte[] readNext() throws IOException;
+    }
+
+    /**
+     * Spliterator that reads records one at a time and splits off batches of undecoded records, so
+     * decoding runs on the thread that takes the batch.
+     */
+    static final class BatchSpliterator<T> implements Spliterator<T> {
+        private final RecordSource source;
+        private final Function<byte[], T> decoder;
+        private final int batchSize;
+        private boolean done;
+
+        BatchSpliterator(RecordSource source, Function<byte[], T> decoder, int batchSize) {
+            if (batchSize < 1) throw new IllegalArgumentException("Invalid batch size " + batchSize);
+            this.source = source;
+            this.decoder = decoder;
+            this.batchSize = batchSize;
+        }
+
+        private byte[] read() {
+            if (done) return null;
+            try {
+                byte[] record = source.readNext();
+                if (record == null) done = true;
+                return record;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            byte[] record = read();
+            if (record == null) return false;
+            action.accept(decoder.apply(record));
+            return true;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            byte[][] batch = new byte[batchSize][];
+            int count = 0;
+            byte[] record;
+            while (count < batchSize && (record = read()) != null) batch[count++] = record;
+            return count == 0 ? null : new Batch<>(batch, 0, count, decoder);
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+
+    private static final class Batch<T> implements Spliterator<T> {
+        private final byte[][] records;
+        private int from;
+        private final int to;
+        private final Function<byte[], T> decoder;
+
+        Batch(byte[][] records, int from, int to, Function<byte[], T> decoder) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (from >= to) return false;
+            action.accept(decoder.apply(records[from++]));
+            return true;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int mid = (from + to) >>> 1;
+            if (mid <= from) return null;
+            Batch<T> prefix = new Batch<>(records, from, mid, decoder);
+            from = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return to - from;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | SIZED | SUBSIZED;
+        }
+    }
+
+    /**
+     * IPM reader that decodes on a pool of worker threads.
+     * <p>
+     * Records are read on a scanner thread and handed to the workers in batches, so reading the file,
+     * decoding and the work done by the iterating thread overlap. With ordered output (the default)
+     * records come back in file order, otherwise each batch is returned as soon as it is decoded. At most
+     * two batches per thread are in flight, so memory use does not grow with the file. The reader can
+     * only be iterated once.
+     */
+    public static class ParallelIpmReader implements Closeable, Iterable<Map<String, Object>> {
+        private final RecordSource source;
+        private final Closeable input;
+        private final Charset encoding;
+        private final CompiledIso8583Codec codec;
+        private FieldProjection projection;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int batchSize = 256;
+        private boolean ordered = true;
+        private ExecutorService executor;
+        private final List<Thread> scanners = new ArrayList<>();
+
+        public ParallelIpmReader(InputStream in, boolean blocked) {
+            this(in, blocked, StandardCharsets.ISO_8859_1, null);
+        }
+
+        public ParallelIpmReader(InputStream in, boolean blocked, Charset encoding, Map<Integer, BitConfig> config) {
+            VbsReader vbsReader = new VbsReader(in, blocked);
+            this.source = vbsReader::readNext;
+            this.input = vbsReader;
+            this.encoding = encoding;
+            this.codec = CompiledIso8583Codec.of(config);
+        }
+
+        public ParallelIpmReader withProjection(FieldProjection projection) {
+            this.projection = projection;
+            return this;
+        }
+
+        public ParallelIpmReader withThreads(int threads) {
+            if (threads < 1) throw new IllegalArgumentException("Invalid thread count " + threads);
+            this.threads = threads;
+            return this;
+        }
+
+        public ParallelIpmReader withBatchSize(int batchSize) {
+            if (batchSize < 1) throw new IllegalArgumentException("Invalid batch size " + batchSize);
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param ordered false to return batches as they are decoded rather than in file order
+         */
+        public ParallelIpmReader withOrdered(boolean ordered) {
+            this.ordered = ordered;
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException if the reader has already been iterated
+         */
+        @Override
+        public Iterator<Map<String, Object>> iterator() {
+            if (executor != null) throw new IllegalStateException("ParallelIpmReader can only be iterated once");
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "ipm-decode");
+                thread.setDaemon(true);
+                return thread;
+            });
+            return new ParallelIterator();
+        }
+
+        private List<Map<String, Object>> decode(byte[][] batch, int count) {
+            List<Map<String, Object>> decoded = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) decoded.add(codec.unpack(batch[i], encoding, false, projection));
+            return decoded;
+        }
+
+        // Queued by the scanner in place of a future when output is unordered, and after the last batch
+        private static final Future<List<Map<String, Object>>> UNORDERED = CompletableFuture.completedFuture(null);
+        private static final Future<List<Map<String, Object>>> END = CompletableFuture.completedFuture(null);
+
+        private class ParallelIterator implements Iterator<Map<String, Object>> {
+            private final BlockingQueue<Future<List<Map<String, Object>>>> pending = new LinkedBlockingQueue<>();
+            private final CompletionService<List<Map<String, Object>>> completion = new ExecutorCompletionService<>(executor);
+            // Batches read but not yet returned to the iterating thread
+            private final Semaphore slots = new Semaphore(threads * 2);
+            private boolean done;
+            private Iterator<Map<String, Object>> current = Collections.emptyIterator();
+
+            ParallelIterator() {
+                Thread scanner = new Thread(this::scan, "ipm-scan");
+                scanner.setDaemon(true);
+                synchronized (scanners) {
+                    scanners.add(scanner);
+                }
+                scanner.start();
+            }
+
+            private void scan() {
+                try {
+                    boolean sourceDone = false;
+                    while (!sourceDone) {
+                        slots.acquire();
+                        byte[][] batch = new byte[batchSize][];
+                        int count = 0;
+                        byte[] record;
+                        while (count < batchSize && (record = source.readNext()) != null) batch[count++] = record;
+                        sourceDone = count < batchSize;
+                        if (count == 0) break;
+                        final int size = count;
+                        Callable<List<Map<String, Object>>> task = () -> decode(batch, size);
+                        if (ordered) {
+                            pending.add(executor.submit(task));
+                        } else {
+                            completion.submit(task);
+                            pending.add(UNORDERED);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    // Reported after the batches read before the error
+                    RuntimeException error = e instanceof IOException ? new UncheckedIOException((IOException) e) : (RuntimeException) e;
+                    pending.add(CompletableFuture.failedFuture(error));
+                }
+                pending.add(END);
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (done) return false;
+                    try {
+                        Future<List<Map<String, Object>>> next = pending.take();
+                        if (next == END) {
+                            done = true;
+                            return false;
+                        }
+                        current = (next == UNORDERED ? completion.take() : next).get().iterator();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("Interrupted decoding IPM records", e);
+                    } catch (ExecutionException e) {
+                        done = true;
+                        if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                        throw new RuntimeException("Error decoding IPM records", e.getCause());
+                    }
+                    slots.release();
+                }
+                return true;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return current.next();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (scanners) {
+                for (Thread scanner : scanners) scanner.interrupt();
+            }
+            if (executor != null) executor.shutdownNow();
+            input.close();
+        }
+    }
+
+    /**
+     * IPM reader over a memory mapped file.
+     * <p>
+     * The file is mapped in windows of whole 1014 byte blocks. A record is found by translating its
+     * offset in the unblocked VBS data to a file offset, skipping the 2 pad bytes at the end of each
+     * block, so nothing is copied to unblock the file. {@link #nextRecord()} returns a slice of the
+     * mapping when the record sits in one block and only copies records that span a block boundary.
+     */
+    public static class MappedIpmReader implements Closeable, Iterable<Map<String, Object>> {
+        static final long DEFAULT_WINDOW_SIZE = (long) BLOCK_SIZE * 256 * 1024;
+
+        private final FileChannel channel;
+        private final boolean blocked;
+        private final long fileSize;
+        private final long dataSize;
+        private final long windowSize;
+        private final Charset encoding;
+        private final CompiledIso8583Codec codec;
+        private FieldProjection projection;
+
+        private RecordIndex.Builder index;
+
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long position;
+        private long recordOffset = -1;
+        private boolean finished;
+        private long recordNo = -1;
+        private int maxRecordLength = MAX_RECORD_LENGTH;
+        private final byte[] header = new byte[4];
+        private byte[] scratch = new byte[8192];
+
+        public MappedIpmReader(Path path, boolean blocked) throws IOException {
+            this(path, blocked, StandardCharsets.ISO_8859_1, null);
+        }
+
+        public MappedIpmReader(Path path, boolean blocked, Charset encoding, Map<Integer, BitConfig> config) throws IOException {
+            this(path, blocked, encoding, config, DEFAULT_WINDOW_SIZE);
+        }
+
+        MappedIpmReader(Path path, boolean blocked, Charset encoding, Map<Integer, BitConfig> config, long windowSize)
+                throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.blocked = blocked;
+            this.fileSize = channel.size();
+            // A partial last block is ignored, as Unblock1014InputStream does
+            this.dataSize = blocked ? fileSize / BLOCK_SIZE * BLOCK_DATA_SIZE : fileSize;
+            this.windowSize = blocked ? Math.max(1, windowSize / BLOCK_SIZE) * BLOCK_SIZE : windowSize;
+            this.encoding = encoding;
+            this.codec = CompiledIso8583Codec.of(config);
+        }
+
+        /**
+         * Only decode the given fields for each record, see {@link FieldProjection}.
+         */
+        public MappedIpmReader withProjection(FieldProjection projection) {
+            this.projection = projection;
+            return this;
+        }
+
+        /**
+         * Add each record read to the index, see {@link RecordIndex}. Records are only added until the
+         * first seek, as the index must be built in file order.
+         */
+        public MappedIpmReader withIndex(RecordIndex.Builder index) {
+            this.index = index;
+            return this;
+        }
+
+        /**
+         * Records longer than this are reported as an invalid length, 100000 by default.
+         */
+        public MappedIpmReader withMaxRecordLength(int maxRecordLength) {
+            if (maxRecordLength < 1) throw new IllegalArgumentException("Invalid max record length " + maxRecordLength);
+            this.maxRecordLength = maxRecordLength;
+            return this;
+        }
+
+        /**
+         * Pass each remaining record to the handler in a reused buffer, see {@link VbsReader#forEachRecord}.
+         * Record numbers count from the first record read, or from the record sought to with an index.
+         *
+         * @return number of records handled
+         */
+        public long forEachRecord(RecordHandler handler) throws IOException {
+            long count = 0;
+            int length;
+            while ((length = nextLength()) >= 0) {
+                byte[] buf = scratch(length);
+                copy(recordOffset + 4, buf, 0, length);
+                if (index != null) {
+                    index.add(recordOffset, index.isKeyed() ? number(messageNumber(codec, buf, 0, length, encoding)) : -1);
+                }
+                handler.record(buf, 0, length, recordNo);
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * Continue reading at the record, the next read returns it.
+         */
+        public MappedIpmReader seek(RecordIndex recordIndex, int recordNo) {
+            if (recordIndex.isBlocked() != blocked) throw new IllegalArgumentException("Index blocking does not match the reader");
+            if (recordNo < 0 || recordNo >= recordIndex.size()) throw new IllegalArgumentException("Invalid record number " + recordNo);
+            seek(recordIndex.dataOffset(recordNo));
+            this.recordNo = recordNo - 1;
+            return this;
+        }
+
+        /**
+         * Continue reading at an offset in the unblocked VBS data, which must be the start of a record.
+         */
+        public MappedIpmReader seek(long dataOffset) {
+            if (dataOffset < 0 || dataOffset > dataSize) throw new IllegalArgumentException("Invalid offset " + dataOffset);
+            index = null;
+            position = dataOffset;
+            finished = false;
+            return this;
+        }
+
+        /**
+         * Read up to count records starting at a record number.
+         */
+        public List<byte[]> readRange(RecordIndex recordIndex, int fromRecord, int count) throws IOException {
+            if (count < 0) throw new IllegalArgumentException("Invalid record count " + count);
+            seek(recordIndex, fromRecord);
+            List<byte[]> records = new ArrayList<>(Math.min(count, recordIndex.size() - fromRecord));
+            byte[] record;
+            while (records.size() < count && (record = readNext()) != null) records.add(record);
+            return records;
+        }
+
+        /**
+         * Next record without its length header, as a slice of the mapped file or of an internal buffer.
+         * The buffer is only valid until the next call.
+         *
+         * @return the record, or null at the end of the file
+         */
+        public ByteBuffer nextRecord() throws IOException {
+            int length = nextLength();
+            if (length < 0) return null;
+            long from = recordOffset + 4;
+            if (index != null) indexRaw(from, length);
+            if (!blocked || from / BLOCK_DATA_SIZE == (from + length - 1) / BLOCK_DATA_SIZE) {
+                long filePos = filePosition(from);
+                mapWindow(filePos);
+                if (filePos + length <= windowStart + window.limit()) {
+                    return window.slice((int) (filePos - windowStart), length);
+                }
+            }
+            byte[] buf = scratch(length);
+            copy(from, buf, 0, length);
+            return ByteBuffer.wrap(buf, 0, length);
+        }
+
+        /**
+         * Next record without its length header, copied into a new array.
+         *
+         * @return the record, or null at the end of the file
+         */
+        public byte[] readNext() throws IOException {
+            int length = nextLength();
+            if (length < 0) return null;
+            byte[] record = new byte[length];
+            copy(recordOffset + 4, record, 0, length);
+            if (index != null) {
+                index.add(recordOffset, index.isKeyed() ? number(messageNumber(codec, record, 0, length, encoding)) : -1);
+            }
+            return record;
+        }
+
+        /**
+         * Read the next record into a reusable message, resetting it first. The message reads from a
+         * buffer that is reused for the following record.
+         *
+         * @return false at the end of the file
+         */
+        public boolean next(IsoMessage message) throws IOException {
+            int length = nextLength();
+            if (length < 0) return false;
+            byte[] buf = scratch(length);
+            copy(recordOffset + 4, buf, 0, length);
+            codec.unpackInto(buf, 0, length, encoding, false, message);
+            if (index != null) index.add(recordOffset, index.isKeyed() ? message.getLong(71, -1) : -1);
+            return true;
+        }
+
+        /**
+         * Decoded records as a stream, see {@link IpmReader#stream()}.
+         */
+        public Stream<Map<String, Object>> stream() {
+            return stream(256);
+        }
+
+        public Stream<Map<String, Object>> stream(int batchSize) {
+            return StreamSupport.stream(new BatchSpliterator<>(this::readNext,
+                    data -> codec.unpack(data, encoding, false, projection), batchSize), false).onClose(this::closeQuietly);
+        }
+
+        private void closeQuietly() {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @return offset of the last record read in the unblocked VBS data, its length header included.
+         */
+        public long recordOffset() {
+            return recordOffset;
+        }
+
+        @Override
+        public Iterator<Map<String, Object>> iterator() {
+            return new RecordIterator<>(data -> codec.unpack(data, encoding, false, projection));
+        }
+
+        /**
+         * Iterate the records as lazy {@link Iso8583View}s rather than fully decoded maps.
+         */
+        public Iterable<Iso8583View> views() {
+            return () -> new RecordIterator<>(data -> codec.view(data, encoding, false));
+        }
+
+        private class RecordIterator<T> implements Iterator<T> {
+            private final Function<byte[], T> decoder;
+            private byte[] nextRecord;
+
+            RecordIterator(Function<byte[], T> decoder) {
+                this.decoder = decoder;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (nextRecord != null) return true;
+                try {
+                    nextRecord = readNext();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return nextRecord != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                byte[] data = nextRecord;
+                nextRecord = null;
+                return decoder.apply(data);
+            }
+        }
+
+        /**
+         * Read the length header at the current position and move past the record.
+         *
+         * @return the record length, or -1 at the end of the data
+         */
+        private int nextLength() throws IOException {
+            if (finished || position + 4 > dataSize) {
+                finished = true;
+                return -1;
+            }
+            copy(position, header, 0, 4);
+            int length = (header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8 | (header[3] & 0xFF);
+            if (length == 0) {
+                finished = true;
+                return -1;
+            }
+            if (length < 0 || length > maxRecordLength) {
+                throw new IOException("Invalid VBS record length: " + length);
+            }
+            if (position + 4 + length > dataSize) {
+                // Truncated record, the stream reader stops here too
+                finished = true;
+                return -1;
+            }
+            recordOffset = position;
+            position += 4 + length;
+            recordNo++;
+            return length;
+        }
+
+        private void indexRaw(long from, int length) throws IOException {
+            long messageNumber = -1;
+            if (index.isKeyed()) {
+                byte[] buf = scratch(length);
+                copy(from, buf, 0, length);
+                messageNumber = number(messageNumber(codec, buf, 0, length, encoding));
+            }
+            index.add(recordOffset, messageNumber);
+        }
+
+        private static long number(Object value) {
+            return value instanceof Number ? ((Number) value).longValue() : -1;
+        }
+
+        private long filePosition(long dataOffset) {
+            return blocked ? dataOffset + 2 * (dataOffset / BLOCK_DATA_SIZE) : dataOffset;
+        }
+
+        /**
+         * Copy unblocked data from dataOffset, skipping block pads and crossing mapping windows.
+         */
+        private void copy(long dataOffset, byte[] dst, int off, int len) throws IOException {
+            while (len > 0) {
+                long filePos = filePosition(dataOffset);
+                mapWindow(filePos);
+                int chunk = (int) Math.min(len, windowStart + window.limit() - filePos);
+                if (blocked) chunk = Math.min(chunk, BLOCK_DATA_SIZE - (int) (dataOffset % BLOCK_DATA_SIZE));
+                window.get((int) (filePos - windowStart), dst, off, chunk);
+                dataOffset += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        private void mapWindow(long filePos) throws IOException {
+            if (window != null && filePos >= windowStart && filePos < windowStart + window.limit()) return;
+            windowStart = filePos - filePos % windowSize;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, fileSize - windowStart));
+        }
+
+        private byte[] scratch(int length) {
+            if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+            return scratch;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            channel.close();
+        }
+    }
+
     public static class IpmWriter implements Closeable {
         private final VbsWriter vbsWriter;
         private final Charset encoding;
-        private final Map<Integer, BitConfig> config;
-        
+        private final CompiledIso8583Codec codec;
+        private byte[] buffer = new byte[8192];
+
         public IpmWriter(OutputStream out, boolean blocked) {
              this(out, blocked, StandardCharsets.ISO_8859_1, null);
         }
@@ -279,17 +1828,212 @@ public class MciIpm {
         public IpmWriter(OutputStream out, boolean blocked, Charset encoding, Map<Integer, BitConfig> config) {
             this.vbsWriter = new VbsWriter(out, blocked);
             this.encoding = encoding;
-            this.config = config;
+            this.codec = CompiledIso8583Codec.of(config);
         }
-        
+
         public void write(Map<String, Object> message) throws IOException {
-            byte[] data = Iso8583.pack(message, config, encoding, false);
-            vbsWriter.write(data);
+            int length;
+            while (true) {
+                try {
+                    length = codec.packInto(message, buffer, 0, encoding, false);
+                    break;
+                } catch (BufferOverflowException e) {
+                    buffer = new byte[buffer.length * 2];
+                }
+            }
+            vbsWriter.write(buffer, 0, length);
         }
-        
+
+        public void write(IsoMessage message) throws IOException {
+            int length;
+            while (true) {
+                try {
+                    length = codec.packInto(message, buffer, 0, encoding, false);
+                    break;
+                } catch (BufferOverflowException e) {
+                    buffer = new byte[buffer.length * 2];
+                }
+            }
+            vbsWriter.write(buffer, 0, length);
+        }
+
         @Override
         public void close() throws IOException {
             vbsWriter.close();
         }
     }
+
+    /**
+     * IPM writer that packs records on a worker pool and writes them through a {@link VbsChannelWriter}.
+     * <p>
+     * Messages are collected into batches, each batch is packed into one array of VBS framed records by a
+     * worker, and packed batches are written in the order the messages were given. At most threads * 2
+     * batches are in flight, so the caller blocks rather than queueing the whole file. The output is the
+     * same as {@link IpmWriter}.
+     */
+    public static class ParallelIpmWriter implements Closeable {
+        private final WritableByteChannel channel;
+        private final boolean blocked;
+        private final Charset encoding;
+        private final CompiledIso8583Codec codec;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int batchSize = 256;
+        private int bufferSize = VbsChannelWriter.DEFAULT_BUFFER_SIZE;
+        private VbsChannelWriter out;
+        private ExecutorService executor;
+        private final Deque<Future<Packed>> pending = new ArrayDeque<>();
+        private Object[] batch;
+        private int batchCount;
+
+        private record Packed(byte[] data, int length) {
+        }
+
+        private record Row(IpmRowMapping mapping, String[] values) {
+        }
+
+        public ParallelIpmWriter(Path path, boolean blocked) throws IOException {
+            this(path, blocked, StandardCharsets.ISO_8859_1, null);
+        }
+
+        public ParallelIpmWriter(Path path, boolean blocked, Charset encoding, Map<Integer, BitConfig> config)
+                throws IOException {
+            this(openOutputChannel(path), blocked, encoding, config);
+        }
+
+        public ParallelIpmWriter(WritableByteChannel channel, boolean blocked, Charset encoding, Map<Integer, BitConfig> config) {
+            this.channel = channel;
+            this.blocked = blocked;
+            this.encoding = encoding;
+            this.codec = CompiledIso8583Codec.of(config);
+        }
+
+        public ParallelIpmWriter withThreads(int threads) {
+            if (threads < 1) throw new IllegalArgumentException("Invalid thread count " + threads);
+            this.threads = threads;
+            return this;
+        }
+
+        public ParallelIpmWriter withBatchSize(int batchSize) {
+            if (batchSize < 1) throw new IllegalArgumentException("Invalid batch size " + batchSize);
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param bufferSize size of the output buffer, set before the first write
+         */
+        public ParallelIpmWriter withBufferSize(int bufferSize) {
+            if (out != null) throw new IllegalStateException("Buffer size must be set before writing");
+            if (bufferSize < BLOCK_SIZE) throw new IllegalArgumentException("Buffer size must be at least " + BLOCK_SIZE);
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Queue a message for packing. It is packed later on a worker, so must not be changed after this call.
+         */
+        public void write(Map<String, Object> message) throws IOException {
+            add(message);
+        }
+
+        /**
+         * Queue a message for packing. It is packed later on a worker, so must not be reused after this call.
+         */
+        public void write(IsoMessage message) throws IOException {
+            add(message);
+        }
+
+        /**
+         * Queue a row laid out by the mapping for packing, the values array must not be reused after this call.
+         * The row is packed with the writer's bit config, as maps and messages are, not the mapping's.
+         */
+        public void write(IpmRowMapping mapping, String[] row) throws IOException {
+            add(new Row(mapping, row));
+        }
+
+        private void add(Object message) throws IOException {
+            if (batch == null) {
+                start();
+                batch = new Object[batchSize];
+            }
+            batch[batchCount++] = message;
+            if (batchCount == batchSize) submit();
+        }
+
+        private void start() {
+            if (out != null) return;
+            out = new VbsChannelWriter(channel, blocked, bufferSize);
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "ipm-pack");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private void submit() throws IOException {
+            Object[] messages = batch;
+            int count = batchCount;
+            batch = null;
+            batchCount = 0;
+            pending.add(executor.submit(() -> pack(messages, count)));
+            while (pending.size() >= threads * 2) writeNext();
+        }
+
+        @SuppressWarnings("unchecked")
+        private Packed pack(Object[] messages, int count) {
+            byte[] buf = new byte[count * 512];
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                while (true) {
+                    if (pos + 4 > buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                    try {
+                        // Pack after the 4 byte length, the length is filled in once known
+                        int length;
+                        if (messages[i] instanceof Row) {
+                            Row row = (Row) messages[i];
+                            length = codec.packInto(row.mapping(), row.values(), buf, pos + 4, buf.length, encoding, false);
+                        } else if (messages[i] instanceof IsoMessage) {
+                            length = codec.packInto((IsoMessage) messages[i], buf, pos + 4, encoding, false);
+                        } else {
+                            length = codec.packInto((Map<String, Object>) messages[i], buf, pos + 4, encoding, false);
+                        }
+                        BitUtils.putInt(buf, pos, length);
+                        pos += 4 + length;
+                        break;
+                    } catch (BufferOverflowException e) {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                }
+            }
+            return new Packed(buf, pos);
+        }
+
+        private void writeNext() throws IOException {
+            Packed packed;
+            try {
+                packed = pending.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted packing IPM records");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new RuntimeException("Error packing IPM records", e.getCause());
+            }
+            out.writeVbs(packed.data(), 0, packed.length());
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // An empty file still gets its terminator and padding, no pool is needed for it
+                if (out == null) out = new VbsChannelWriter(channel, blocked, bufferSize);
+                if (batchCount > 0) submit();
+                while (!pending.isEmpty()) writeNext();
+                out.close();
+            } finally {
+                if (executor != null) executor.shutdownNow();
+                channel.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,271 @@
+package com.charisad.cardutil;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index over the private data subelements (PDS) held in DE48, DE62 and DE123-125.
+ * <p>
+ * Each PDS is a 4 digit tag, a 3 digit length and the value. Parsing records the tag, value offset
+ * and value length in tag order without copying the field or creating map entries, so
+ * {@link #getString(int)} is a binary search plus one String for the value asked for. Fields of one
+ * record are added to the same index with {@link #add(int, int)}.
+ */
+public final class PdsData {
+    private final byte[] data;
+    private final Charset encoding;
+    private final byte zero;
+    private int count;
+    private int[] tags = new int[16];
+    private int[] valueOffsets = new int[16];
+    private int[] valueLengths = new int[16];
+    private boolean complete = true;
+
+    private PdsData(byte[] data, Charset encoding) {
+        this.data = data;
+        this.encoding = encoding;
+        this.zero = FieldCodecs.digitZero(encoding);
+    }
+
+    /**
+     * Index the PDS in data[offset, offset + length). The bytes are not copied and must not change while
+     * the index is in use.
+     */
+    public static PdsData parse(byte[] data, int offset, int length, Charset encoding) {
+        return new PdsData(data, encoding).add(offset, length);
+    }
+
+    static PdsData empty(byte[] data, Charset encoding) {
+        return new PdsData(data, encoding);
+    }
+
+    /**
+     * Add the PDS of another field in the same array.
+     */
+    PdsData add(int offset, int length) {
+        int ptr = offset;
+        int end = offset + length;
+        while (ptr < end) {
+            int tag = ptr + 7 <= end ? (int) FieldCodecs.parseDigits(data, ptr, 4, zero) : -1;
+            int len = tag >= 0 ? (int) FieldCodecs.parseDigits(data, ptr + 4, 3, zero) : -1;
+            if (len < 0 || ptr + 7 + len > end) {
+                complete = false;
+                break;
+            }
+            insert(tag, ptr + 7, len);
+            ptr += 7 + len;
+        }
+        return this;
+    }
+
+    // Tags are almost always written in order, so an insertion sort costs one compare per tag
+    private void insert(int tag, int valueOffset, int valueLength) {
+        if (count == tags.length) {
+            tags = Arrays.copyOf(tags, count * 2);
+            valueOffsets = Arrays.copyOf(valueOffsets, count * 2);
+            valueLengths = Arrays.copyOf(valueLengths, count * 2);
+        }
+        int i = count;
+        while (i > 0 && tags[i - 1] > tag) {
+            tags[i] = tags[i - 1];
+            valueOffsets[i] = valueOffsets[i - 1];
+            valueLengths[i] = valueLengths[i - 1];
+            i--;
+        }
+        tags[i] = tag;
+        valueOffsets[i] = valueOffset;
+        valueLengths[i] = valueLength;
+        count++;
+    }
+
+    /**
+     * @return false if a field had a malformed PDS, the PDS before it are indexed.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return tag of the i'th PDS in tag order.
+     */
+    public int tag(int index) {
+        return tags[index];
+    }
+
+    public int valueOffset(int index) {
+        return valueOffsets[index];
+    }
+
+    public int valueLength(int index) {
+        return valueLengths[index];
+    }
+
+    /**
+     * @return position of the tag in tag order, or -1. A repeated tag gives the last one, as the map
+     * form keeps.
+     */
+    public int indexOf(int tag) {
+        int i = Arrays.binarySearch(tags, 0, count, tag);
+        if (i < 0) return -1;
+        while (i + 1 < count && tags[i + 1] == tag) i++;
+        return i;
+    }
+
+    public boolean has(int tag) {
+        return indexOf(tag) >= 0;
+    }
+
+    /**
+     * @return value of the PDS, or null when absent.
+     */
+    public String getString(int tag) {
+        int i = indexOf(tag);
+        return i < 0 ? null : new String(data, valueOffsets[i], valueLengths[i], encoding);
+    }
+
+    /**
+     * @param tag 4 digit tag, e.g. "0023"
+     */
+    public String getString(String tag) {
+        int value = tagOf(tag, 0);
+        return value < 0 ? null : getString(value);
+    }
+
+    /**
+     * The {@link Iso8583#unpack} subfields, a PDSnnnn key for each PDS.
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.put(key(tags[i]), new String(data, valueOffsets[i], valueLengths[i], encoding));
+        }
+        return map;
+    }
+
+    /**
+     * @return map key for the tag, e.g. PDS0023.
+     */
+    static String key(int tag) {
+        return new String(new char[]{'P', 'D', 'S', (char) ('0' + tag / 1000 % 10), (char) ('0' + tag / 100 % 10),
+                (char) ('0' + tag / 10 % 10), (char) ('0' + tag % 10)});
+    }
+
+    /**
+     * @return the tag of a digit string from position from, or -1.
+     */
+    static int tagOf(String key, int from) {
+        if (key.length() <= from || key.length() - from > 9) return -1;
+        int tag = 0;
+        for (int i = from; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            tag = tag * 10 + (c - '0');
+        }
+        return tag;
+    }
+
+    /**
+     * PDS subfields of a message sorted by tag and split into the groups written to each PDS field.
+     * A group holds whole PDS up to 999 characters, the first group goes to the lowest PDS field.
+     */
+    static final class Rollup {
+        int count;
+        int[] tags;
+        String[] values;
+        // Entries of group g are groupStart[g] until groupStart[g + 1]
+        int[] groupStart;
+        int[] groupLength;
+        int groupCount;
+
+        /**
+         * @return the rollup, or null when the message has no PDS keys.
+         */
+        static Rollup of(Map<String, ?> message) {
+            Rollup rollup = null;
+            for (Map.Entry<String, ?> entry : message.entrySet()) {
+                String key = entry.getKey();
+                if (!key.startsWith("PDS")) continue;
+                int tag = tagOf(key, 3);
+                if (tag < 0) tag = Integer.parseInt(key.substring(3));
+                if (rollup == null) rollup = new Rollup();
+                rollup.add(tag, entry.getValue().toString());
+            }
+            if (rollup != null) rollup.group();
+            return rollup;
+        }
+
+        /**
+         * Rollup of the PDS columns of a row, see {@link IpmRowMapping}. Empty values are absent.
+         *
+         * @param tags    PDS tags in ascending order
+         * @param columns row column of each tag
+         * @return the rollup, or null when the row has no PDS values.
+         */
+        static Rollup of(int[] tags, int[] columns, String[] row) {
+            Rollup rollup = null;
+            for (int i = 0; i < tags.length; i++) {
+                String value = IpmRowMapping.value(row, columns[i]);
+                if (value == null) continue;
+                if (rollup == null) rollup = new Rollup();
+                rollup.add(tags[i], value);
+            }
+            if (rollup != null) rollup.group();
+            return rollup;
+        }
+
+        private Rollup() {
+            tags = new int[16];
+            values = new String[16];
+        }
+
+        private void add(int tag, String value) {
+            if (count == tags.length) {
+                tags = Arrays.copyOf(tags, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            int i = count;
+            while (i > 0 && tags[i - 1] > tag) {
+                tags[i] = tags[i - 1];
+                values[i] = values[i - 1];
+                i--;
+            }
+            tags[i] = tag;
+            values[i] = value;
+            count++;
+        }
+
+        private void group() {
+            groupStart = new int[count + 2];
+            groupLength = new int[count + 1];
+            int length = 0;
+            for (int i = 0; i < count; i++) {
+                int entryLength = 7 + values[i].length();
+                if (length + entryLength > 999) {
+                    groupLength[groupCount++] = length;
+                    groupStart[groupCount] = i;
+                    length = 0;
+                }
+                length += entryLength;
+            }
+            if (length > 0) groupLength[groupCount++] = length;
+            groupStart[groupCount] = count;
+        }
+
+        /**
+         * @return the group as the field text, for fields that are not written PDS by PDS.
+         */
+        String groupText(int group) {
+            StringBuilder sb = new StringBuilder(groupLength[group]);
+            for (int i = groupStart[group]; i < groupStart[group + 1]; i++) {
+                sb.append(String.format("%04d%03d", tags[i], values[i].length())).append(values[i]);
+            }
+            return sb.toString();
+        }
+    }
+}
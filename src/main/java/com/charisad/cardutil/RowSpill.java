@@ -0,0 +1,164 @@
+package com.charisad.cardutil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Temporary store for rows whose columns are not known until the last row is read.
+ * <p>
+ * Rows are written to a temporary file as (column number, value) pairs while the set of columns is
+ * collected, then read back as arrays of values in {@link #columns()} order. Column numbers and
+ * lengths are variable length ints, so a row costs little more than its values.
+ */
+final class RowSpill implements Closeable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    @FunctionalInterface
+    interface RowConsumer {
+        void row(String[] values) throws IOException;
+    }
+
+    private final Path path;
+    private final DataOutputStream out;
+    private final Map<String, Integer> columnNumbers = new HashMap<>();
+    private final List<String> columnNames = new ArrayList<>();
+    private long rows;
+
+    RowSpill() throws IOException {
+        path = Files.createTempFile("cardutil", ".spill");
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+    }
+
+    void add(Map<String, ?> row) throws IOException {
+        writeVarInt(row.size());
+        for (Map.Entry<String, ?> entry : row.entrySet()) {
+            Integer column = columnNumbers.get(entry.getKey());
+            if (column == null) {
+                column = columnNames.size();
+                columnNumbers.put(entry.getKey(), column);
+                columnNames.add(entry.getKey());
+            }
+            byte[] value = text(entry.getValue()).getBytes(StandardCharsets.UTF_8);
+            writeVarInt(column);
+            writeVarInt(value.length);
+            out.write(value);
+        }
+        rows++;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    /**
+     * @return the columns seen so far, see {@link #columnOrder()}.
+     */
+    List<String> columns() {
+        List<String> columns = new ArrayList<>(columnNames);
+        columns.sort(columnOrder());
+        return columns;
+    }
+
+    /**
+     * Read the rows back, values in {@link #columns()} order with "" for columns the row does not have.
+     */
+    void replay(RowConsumer consumer) throws IOException {
+        out.flush();
+        List<String> columns = columns();
+        int[] position = new int[columnNames.size()];
+        for (int i = 0; i < columns.size(); i++) position[columnNumbers.get(columns.get(i))] = i;
+
+        String[] values = new String[columns.size()];
+        byte[] buf = new byte[256];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            for (long row = 0; row < rows; row++) {
+                Arrays.fill(values, "");
+                int count = readVarInt(in);
+                for (int i = 0; i < count; i++) {
+                    int column = readVarInt(in);
+                    int length = readVarInt(in);
+                    if (length > buf.length) buf = new byte[Math.max(length, buf.length * 2)];
+                    in.readFully(buf, 0, length);
+                    values[position[column]] = new String(buf, 0, length, StandardCharsets.UTF_8);
+                }
+                consumer.row(values);
+            }
+        }
+    }
+
+    /**
+     * Order of the {@link Iso8583#unpack} keys: MTI, DE fields by number, DE43 subfields, PDS by tag,
+     * ICC_DATA and TAG keys, then anything else by name.
+     */
+    static Comparator<String> columnOrder() {
+        return Comparator.comparingInt(RowSpill::group).thenComparingInt(RowSpill::number).thenComparing(key -> key);
+    }
+
+    private static int group(String key) {
+        if (key.equals("MTI")) return 0;
+        if (key.startsWith("DE43_")) return 2;
+        if (key.startsWith("DE") && PdsData.tagOf(key, 2) >= 0) return 1;
+        if (key.startsWith("PDS") && PdsData.tagOf(key, 3) >= 0) return 3;
+        if (key.equals("ICC_DATA")) return 4;
+        if (key.startsWith("TAG")) return 5;
+        return 6;
+    }
+
+    private static int number(String key) {
+        int group = group(key);
+        if (group == 1) return PdsData.tagOf(key, 2);
+        if (group == 3) return PdsData.tagOf(key, 3);
+        return 0;
+    }
+
+    /**
+     * @return the value as written to CSV, binary values as hex.
+     */
+    static String text(Object value) {
+        if (value == null) return "";
+        if (value instanceof byte[]) return Iso8583.binAsciiHexlify((byte[]) value);
+        return value.toString();
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Truncated spill file");
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupt spill file");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
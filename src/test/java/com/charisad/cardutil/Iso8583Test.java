@@ -1,7 +1,13 @@
 package com.charisad.cardutil;
 
 import org.junit.jupiter.api.Test;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -42,4 +48,439 @@ class Iso8583Test {
         assertEquals("1144", unpacked.get("MTI"));
         assertEquals("4444555566667777", unpacked.get("DE2"));
     }
+
+    @Test
+    void testCompiledCodecMatchesMapApi() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE2", "4444555566667777");
+        data.put("DE4", 1234L);
+        data.put("DE12", "240101120000");
+        data.put("DE24", "200");
+        data.put("PDS0023", "CT6");
+        data.put("PDS0158", "MCC        ");
+
+        CompiledIso8583Codec codec = CompiledIso8583Codec.compile(Config.DEFAULT_BIT_CONFIG);
+        byte[] packed = codec.pack(data, StandardCharsets.ISO_8859_1, false);
+        assertArrayEquals(Iso8583.pack(data, null), packed);
+        assertSame(CompiledIso8583Codec.of(null), CompiledIso8583Codec.of(Config.DEFAULT_BIT_CONFIG));
+
+        Map<String, Object> unpacked = codec.unpack(packed, StandardCharsets.ISO_8859_1, false);
+        assertEquals("000000001234", new String(packed, 20 + 2 + 16, 12, StandardCharsets.ISO_8859_1));
+        assertEquals(1234L, unpacked.get("DE4"));
+        assertEquals("CT6", unpacked.get("PDS0023"));
+        assertEquals("0023003CT60158011MCC        ", unpacked.get("DE48"));
+    }
+
+    @Test
+    void testPackMatchesBaselineBytes() {
+        // Expected bytes were produced by the map based Iso8583.pack before the compiled codec
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE2", "5555444433332222");
+        data.put("DE4", 12345L);
+        data.put("DE12", LocalDateTime.of(2026, 2, 19, 12, 30, 5));
+        data.put("DE24", "200");
+        data.put("DE43", "MERCHANT\\1 STREET\\SYDNEY\\2000      NSWAUS");
+        data.put("DE55", new String(Iso8583.hexStringToByteArray("9f260201ff82021980"), StandardCharsets.ISO_8859_1));
+        data.put("DE71", 7);
+        data.put("DE72", "DATA RECORD");
+        data.put("PDS0023", "CT6");
+        assertArrayEquals(Iso8583.hexStringToByteArray("31323430d0100100002102000300000000000000"
+                + "31363535353534343434333333333232323230303030303030313233343532363032313931323330303532303034"
+                + "314d45524348414e545c31205354524545545c5359444e45595c323030302020202020204e535741555330313030"
+                + "3032333030334354363030399f260201ff8202198030303030303030373031314441544120524543" + "4f5244"),
+                Iso8583.pack(data, null));
+        assertArrayEquals(Iso8583.hexStringToByteArray("f1f2f4f084f0f1f0f0f1f0f0f0f0f2f1f0f2f0f0f0f3f0f0f0f0f0f0f0f0"
+                + "f0f0f0f0f0f0f1f6f5f5f5f5f4f4f4f4f3f3f3f3f2f2f2f2f0f0f0f0f0f0f0f1f2f3f4f5f2f6f0f2f1f9f1f2f3f0f0"
+                + "f5f2f0f0f4f1d4c5d9c3c8c1d5e3e0f140e2e3d9c5c5e3e0e2e8c4d5c5e8e0f2f0f0f0404040404040d5e2e6c1e4e2"
+                + "f0f1f0f0f0f2f3f0f0f3c3e3f6f0f0f9ff500201df22021920f0f0f0f0f0f0f0f7f0f1f1c4c1e3c140d9c5c3d6d9c4"),
+                Iso8583.pack(data, null, Charset.forName("cp500"), true));
+
+        // 11 PDS of 100 bytes, 9 in DE48 and 2 in DE62
+        Map<String, Object> pds = new HashMap<>();
+        pds.put("MTI", "1644");
+        StringBuilder expected = new StringBuilder("900");
+        for (int tag = 1; tag <= 11; tag++) {
+            String value = String.valueOf((char) ('A' + tag)).repeat(93);
+            pds.put(String.format("PDS%04d", tag), value);
+            if (tag == 10) expected.append("200");
+            expected.append(String.format("%04d093", tag)).append(value);
+        }
+        byte[] packed = Iso8583.pack(pds, null);
+        assertArrayEquals(Iso8583.hexStringToByteArray("3136343480000000000100040000000000000000"), Arrays.copyOf(packed, 20));
+        assertEquals(expected.toString(), new String(packed, 20, packed.length - 20, StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void testPdsRollupOverflowsToNextField() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        for (int tag = 1; tag <= 40; tag++) {
+            data.put(String.format("PDS%04d", tag), "X".repeat(93)); // 100 bytes each
+        }
+        Map<String, Object> unpacked = Iso8583.unpack(Iso8583.pack(data, null), null);
+        assertEquals(900, ((String) unpacked.get("DE48")).length());
+        assertEquals(900, ((String) unpacked.get("DE62")).length());
+        assertEquals(900, ((String) unpacked.get("DE123")).length());
+        assertEquals(900, ((String) unpacked.get("DE124")).length());
+        assertEquals(400, ((String) unpacked.get("DE125")).length());
+        assertEquals("X".repeat(93), unpacked.get("PDS0040"));
+    }
+
+    @Test
+    void testViewDecodesOnAccess() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE2", "4444555566667777");
+        data.put("DE4", 1234L);
+        data.put("DE24", "200");
+        data.put("PDS0023", "CT6");
+
+        byte[] packed = Iso8583.pack(data, null);
+        Iso8583View view = Iso8583.view(packed, null);
+        assertEquals("1240", view.getMti());
+        assertTrue(view.has(4));
+        assertFalse(view.has(5));
+        assertEquals(1234L, view.get(4));
+        assertEquals("200", view.get("DE24"));
+        assertEquals("CT6", view.getPds("0023"));
+        assertNull(view.get("PDS0158"));
+        assertEquals(16, view.fieldLength(2));
+        assertEquals(Iso8583.unpack(packed, null), view.toMap());
+    }
+
+    @Test
+    void testUnpackProjection() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE2", "4444555566667777");
+        data.put("DE4", 1234L);
+        data.put("DE24", "200");
+        data.put("DE43", "MERCHANT\\1 STREET\\CITY\\2000      NSWAUS");
+        data.put("PDS0023", "CT6");
+        data.put("PDS0158", "MCC        ");
+        data.put("PDS0165", "M");
+
+        byte[] packed = Iso8583.pack(data, null);
+        Map<String, Object> projected = Iso8583.unpack(packed, null, FieldProjection.of("DE4", "DE24", "PDS0158"));
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("MTI", "1240");
+        expected.put("DE4", 1234L);
+        expected.put("DE24", "200");
+        expected.put("PDS0158", "MCC        ");
+        assertEquals(expected, projected);
+
+        Charset ebcdic = Charset.forName("cp500");
+        byte[] ebcdicPacked = Iso8583.pack(data, null, ebcdic, true);
+        assertEquals(expected, Iso8583.unpack(ebcdicPacked, null, ebcdic, true, FieldProjection.of("DE4", "DE24", "PDS0158")));
+
+        for (String key : new String[]{"PDSabc", "DEx", "DE", "DE200"}) {
+            assertThrows(IllegalArgumentException.class, () -> FieldProjection.of(key));
+        }
+    }
+
+    @Test
+    void testIsoMessageMapAdapters() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE4", 1234L);
+        data.put("DE24", "200");
+        data.put("PDS0023", "CT6");
+        byte[] packed = Iso8583.pack(data, null);
+
+        IsoMessage message = CompiledIso8583Codec.of(null).unpackInto(packed, StandardCharsets.ISO_8859_1, false, new IsoMessage());
+        assertEquals(Iso8583.unpack(packed, null), message.toMap());
+        assertEquals(1234L, message.getLong(4));
+
+        message.setLong(4, 99L).setSubfield("PDS0023", "CT1");
+        IsoMessage copy = IsoMessage.of(message.toMap());
+        assertEquals(99L, copy.getLong(4));
+        assertEquals("CT1", copy.getPds("0023"));
+
+        message.reset();
+        assertFalse(message.has(4));
+        assertNull(message.getPds("0023"));
+    }
+
+    @Test
+    void testIsoMessageReplacesSubfields() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE43", "THE GROCER\\1 HIGH STREET\\SYDNEY\\2000      NSWAUS");
+        data.put("PDS0023", "CT6");
+        data.put("PDS0158", "MCC ");
+        byte[] packed = Iso8583.pack(data, null);
+        CompiledIso8583Codec codec = CompiledIso8583Codec.of(null);
+
+        // With and without the subfields loaded before the change
+        for (boolean loaded : new boolean[]{false, true}) {
+            IsoMessage message = codec.unpackInto(packed, StandardCharsets.ISO_8859_1, false, new IsoMessage());
+            if (loaded) assertEquals("CT6", message.getSubfield("PDS0023"));
+            message.set(48, "0023003CT1");
+            assertEquals("CT1", message.getPds("0023"));
+            assertNull(message.getPds("0158"));
+            assertEquals("CT1", message.toMap().get("PDS0023"));
+
+            byte[] repacked = new byte[256];
+            int length = codec.packInto(message, repacked, 0, StandardCharsets.ISO_8859_1, false);
+            Map<String, Object> unpacked = Iso8583.unpack(Arrays.copyOf(repacked, length), null);
+            assertEquals("0023003CT1", unpacked.get("DE48"));
+            assertFalse(unpacked.containsKey("PDS0158"));
+
+            assertEquals("THE GROCER", message.getSubfield("DE43_NAME"));
+            message.remove(43);
+            assertNull(message.getSubfield("DE43_NAME"));
+            assertFalse(message.toMap().containsKey("DE43_SUBURB"));
+        }
+    }
+
+    @Test
+    void testPackIntoBuffer() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE2", "4444555566667777");
+        data.put("DE4", 1234L);
+        data.put("DE26", 5411);
+        data.put("PDS0023", "CT6");
+        byte[] expected = Iso8583.pack(data, null);
+
+        byte[] array = new byte[expected.length + 10];
+        assertEquals(expected.length, Iso8583.packInto(data, null, array, 10));
+        assertArrayEquals(expected, Arrays.copyOfRange(array, 10, array.length));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+        assertEquals(expected.length, Iso8583.packInto(data, null, direct));
+        assertEquals(expected.length, direct.position());
+
+        IsoMessage message = IsoMessage.of(data);
+        ByteBuffer heap = ByteBuffer.allocate(256);
+        int length = CompiledIso8583Codec.of(null).packInto(message, heap, StandardCharsets.ISO_8859_1, false);
+        assertArrayEquals(expected, Arrays.copyOf(heap.array(), length));
+
+        assertThrows(BufferOverflowException.class, () -> Iso8583.packInto(data, null, new byte[20], 0));
+    }
+
+    @Test
+    void testPackIntoDirectBufferOverScratchSize() throws InterruptedException {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        for (int bit : new int[]{54, 72, 105, 111, 127}) data.put("DE" + bit, "D".repeat(999));
+        for (int tag = 1; tag <= 40; tag++) data.put(String.format("PDS%04d", tag), "X".repeat(93));
+
+        // A new thread so the thread's scratch array starts at its initial size
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(() -> {
+            try {
+                ByteBuffer direct = ByteBuffer.allocateDirect(16 * 1024);
+                int length = Iso8583.packInto(data, null, direct);
+                byte[] expected = Iso8583.pack(data, null);
+                assertTrue(expected.length > 8192);
+                assertEquals(expected.length, length);
+                byte[] actual = new byte[length];
+                direct.flip().get(actual);
+                assertArrayEquals(expected, actual);
+
+                ByteBuffer small = ByteBuffer.allocateDirect(expected.length - 1);
+                assertThrows(BufferOverflowException.class, () -> Iso8583.packInto(data, null, small));
+                assertEquals(0, small.position());
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        });
+        thread.start();
+        thread.join();
+        if (failure[0] instanceof Error) throw (Error) failure[0];
+        if (failure[0] != null) throw new AssertionError(failure[0]);
+    }
+
+    @Test
+    void testBitmapWords() {
+        Bitmap bitmap = new Bitmap().set(2).set(4).set(64).set(65).set(128);
+        assertTrue(bitmap.hasSecondary());
+        assertEquals(16, bitmap.byteLength());
+        assertEquals(2, bitmap.nextSetBit(2));
+        assertEquals(64, bitmap.nextSetBit(5));
+        assertEquals(128, bitmap.nextSetBit(66));
+        assertEquals(-1, bitmap.nextSetBit(129));
+        assertEquals(bitmap, Bitmap.read(bitmap.toBytes(), 0));
+        assertEquals(BitUtils.fromBytes(bitmap.toBytes()), BitUtils.fromBytes(BitUtils.toBytes(BitUtils.fromBytes(bitmap.toBytes()), 16)));
+    }
+
+    @Test
+    void testPrimaryOnlyBitmap() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "0100");
+        data.put("DE2", "4444555566667777");
+        data.put("DE4", 1234L);
+
+        CompiledIso8583Codec compact = CompiledIso8583Codec.of(null).withCompactBitmap(true);
+        byte[] packed = compact.pack(data, StandardCharsets.ISO_8859_1, false);
+        assertEquals(Iso8583.pack(data, null).length - 8, packed.length);
+        assertEquals(0x50, packed[4] & 0xFF); // bits 2 and 4, no secondary flag
+        assertEquals(Iso8583.unpack(Iso8583.pack(data, null), null), Iso8583.unpack(packed, null));
+
+        byte[] hexPacked = compact.pack(data, StandardCharsets.ISO_8859_1, true);
+        assertEquals("5000000000000000", new String(hexPacked, 4, 16, StandardCharsets.ISO_8859_1));
+        assertEquals(1234L, Iso8583.unpack(hexPacked, null, StandardCharsets.ISO_8859_1, true).get("DE4"));
+
+        data.put("DE71", 1);
+        assertEquals(Iso8583.pack(data, null).length, compact.pack(data, StandardCharsets.ISO_8859_1, false).length);
+    }
+
+    @Test
+    void testFieldCodecs() {
+        byte[] ascii = "0012345x".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(12345L, FieldCodecs.parseLong(ascii, 0, 7, StandardCharsets.ISO_8859_1));
+        assertEquals(-1L, FieldCodecs.parseDigits(ascii, 0, 8, (byte) '0'));
+        assertEquals(-42L, FieldCodecs.parseLong("-42".getBytes(StandardCharsets.ISO_8859_1), 0, 3, StandardCharsets.ISO_8859_1));
+
+        Charset ebcdic = Charset.forName("cp500");
+        byte[] buf = new byte[12];
+        assertEquals(6, FieldCodecs.putDigits(123, 6, FieldCodecs.digitZero(ebcdic), buf, 0, buf.length));
+        assertEquals("000123", new String(buf, 0, 6, ebcdic));
+        assertEquals(123L, FieldCodecs.parseLong(buf, 0, 6, ebcdic));
+
+        assertEquals(LocalDateTime.of(2024, 2, 29, 12, 30, 5),
+                FieldCodecs.parseDateTime("240231123005".getBytes(ebcdic), 0, 12, ebcdic));
+        assertNull(FieldCodecs.parseDateTime("241301123005".getBytes(ebcdic), 0, 12, ebcdic));
+        assertEquals(LocalDate.of(2024, 2, 19), FieldCodecs.parseDate("240219"));
+        assertNull(FieldCodecs.parseDate("24021X"));
+
+        // A dirty DE12 stays a String, a clean one packs and unpacks as a date time in both encodings
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE12", "2402191299XX");
+        assertEquals("2402191299XX", Iso8583.unpack(Iso8583.pack(data, null), null).get("DE12"));
+        data.put("DE12", LocalDateTime.of(2024, 2, 19, 12, 30, 5));
+        data.put("DE4", 1234L);
+        for (Charset encoding : new Charset[]{StandardCharsets.ISO_8859_1, ebcdic}) {
+            Map<String, Object> unpacked = Iso8583.unpack(Iso8583.pack(data, null, encoding, false), null, encoding, false);
+            assertEquals(data.get("DE12"), unpacked.get("DE12"));
+            assertEquals(1234L, unpacked.get("DE4"));
+        }
+    }
+
+    @Test
+    void testIccTlv() {
+        byte[] signature = new byte[200];
+        Arrays.fill(signature, (byte) 0xAB);
+        byte[] template = IccData.builder().add(0x9F26, Iso8583.hexStringToByteArray("0102030405060708")).build();
+        byte[] de55 = IccData.builder()
+                .add("9F02", "000000001234")
+                .add(0x70, template)
+                .add(0xDF8101, signature)
+                .build();
+        assertEquals((byte) 0x81, de55[de55.length - 202]); // long form length of the 200 byte value
+
+        IccData icc = IccData.parse(de55);
+        assertTrue(icc.isComplete());
+        assertEquals(4, icc.size());
+        assertEquals("000000001234", icc.getHex("9F02"));
+        assertEquals("0102030405060708", icc.getHex(0x9F26));
+        assertEquals(1, icc.depth(icc.indexOf(0x9F26)));
+        assertTrue(icc.isConstructed(icc.indexOf(0x70)));
+        assertEquals(200, icc.getBytes(0xDF8101).length);
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE55", de55);
+        byte[] packed = Iso8583.pack(data, null);
+        Map<String, Object> unpacked = Iso8583.unpack(packed, null);
+        assertArrayEquals(de55, (byte[]) unpacked.get("DE55"));
+        assertEquals("000000001234", unpacked.get("TAG9F02"));
+        assertEquals("DF8101", IccData.tagName(0xDF8101));
+        assertTrue(unpacked.containsKey("TAGDF8101"));
+        assertFalse(unpacked.containsKey("TAG9F26")); // nested, reached through IccData
+        assertEquals("0102030405060708", Iso8583.view(packed, null).get("TAG9F26"));
+
+        // Tags alone are built into DE55 in tag order
+        Map<String, Object> tags = new HashMap<>();
+        tags.put("MTI", "1240");
+        tags.put("TAG9F02", "000000001234");
+        tags.put("TAG82", "1980");
+        byte[] built = (byte[]) Iso8583.unpack(Iso8583.pack(tags, null), null).get("DE55");
+        assertEquals("8202198" + "09f0206000000001234", Iso8583.binAsciiHexlify(built));
+
+        byte[] truncated = Arrays.copyOf(de55, 10);
+        assertFalse(IccData.parse(truncated).isComplete());
+        assertEquals("000000001234", IccData.parse(truncated).getHex("9F02"));
+
+        // 4 byte tags above 0x7FFFFFFF
+        IccData fourByte = IccData.parse(IccData.builder().add("DF818101", "0102").build());
+        assertTrue(fourByte.isComplete());
+        assertEquals("0102", fourByte.getHex("DF818101"));
+
+        // Indefinite length (0x80) is malformed
+        IccData indefinite = IccData.parse(Iso8583.hexStringToByteArray("9F0201019F2680010203"));
+        assertFalse(indefinite.isComplete());
+        assertEquals(1, indefinite.size());
+    }
+
+    @Test
+    void testPdsIndex() {
+        byte[] field = "0158004MCC 0023003CT60165001M".getBytes(StandardCharsets.ISO_8859_1);
+        PdsData pds = PdsData.parse(field, 0, field.length, StandardCharsets.ISO_8859_1);
+        assertTrue(pds.isComplete());
+        assertEquals(3, pds.size());
+        assertEquals(23, pds.tag(0));
+        assertEquals("CT6", pds.getString(23));
+        assertEquals("MCC ", pds.getString("0158"));
+        assertNull(pds.getString(52));
+
+        byte[] dirty = "0023003CT601".getBytes(StandardCharsets.ISO_8859_1);
+        PdsData partial = PdsData.parse(dirty, 0, dirty.length, StandardCharsets.ISO_8859_1);
+        assertFalse(partial.isComplete());
+        assertEquals("CT6", partial.getString(23));
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("PDS0165", "M");
+        data.put("PDS0023", "CT6");
+        data.put("PDS0158", "MCC ");
+        byte[] packed = Iso8583.pack(data, null);
+        assertEquals("029" + "0023003CT6" + "0158004MCC " + "0165001M",
+                new String(packed, 20, 32, StandardCharsets.ISO_8859_1));
+        assertEquals("M", Iso8583.view(packed, null).getPds(165));
+        IsoMessage message = CompiledIso8583Codec.of(null).unpackInto(packed, StandardCharsets.ISO_8859_1, false, new IsoMessage());
+        assertEquals("MCC ", message.getPds("0158"));
+        assertEquals("CT6", message.getPds(23));
+    }
+
+    @Test
+    void testDe43Splitter() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE43", "THE GROCER  \\1 HIGH STREET\\SYDNEY\\2000      NSWAUS");
+        for (Charset encoding : new Charset[]{StandardCharsets.ISO_8859_1, Charset.forName("cp500")}) {
+            Map<String, Object> unpacked = Iso8583.unpack(Iso8583.pack(data, null, encoding, false), null, encoding, false);
+            assertEquals("THE GROCER", unpacked.get("DE43_NAME"));
+            assertEquals("1 HIGH STREET", unpacked.get("DE43_ADDRESS"));
+            assertEquals("SYDNEY", unpacked.get("DE43_SUBURB"));
+            assertEquals("2000", unpacked.get("DE43_POSTCODE"));
+            assertEquals("NSW", unpacked.get("DE43_STATE"));
+            assertEquals("AUS", unpacked.get("DE43_COUNTRY"));
+        }
+
+        // Same split as the regex with the country group written as intended
+        De43Parser regex = De43Parser.of(Config.DE43_PATTERN.replace("\\\\S{3}", "\\S{3}"));
+        assertFalse(regex.isSplitter());
+        assertEquals(regex.parse(data.get("DE43").toString()), De43Parser.of(null).parse(data.get("DE43").toString()));
+
+        De43Parser counting = De43Parser.of("on_error=COUNT");
+        assertTrue(counting.parse("NO SEPARATORS").isEmpty());
+        assertTrue(counting.parse("A\\B\\C\\2000      NSW AU").isEmpty());
+        assertEquals(2, counting.errorCount());
+        assertEquals(0, De43Parser.of(null).errorCount());
+
+        // The option combines with a regex
+        De43Parser countingRegex = De43Parser.of("on_error=COUNT;" + Config.DE43_PATTERN.replace("\\\\S{3}", "\\S{3}"));
+        assertFalse(countingRegex.isSplitter());
+        assertEquals(regex.parse(data.get("DE43").toString()), countingRegex.parse(data.get("DE43").toString()));
+        assertTrue(countingRegex.parse("NO SEPARATORS").isEmpty());
+        assertEquals(1, countingRegex.errorCount());
+        assertTrue(De43Parser.of("on_error=WARN;" + Config.DE43_PATTERN).isSplitter());
+        assertThrows(IllegalArgumentException.class, () -> De43Parser.of("on_error=LOUD"));
+    }
 }
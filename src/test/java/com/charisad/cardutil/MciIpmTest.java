@@ -0,0 +1,681 @@
+package com.charisad.cardutil;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MciIpmTest {
+
+    static Map<String, Object> record(int messageNumber) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MTI", "1240");
+        data.put("DE2", "5555444433332222");
+        data.put("DE4", 100L * messageNumber);
+        data.put("DE24", "200");
+        data.put("DE49", "036");
+        data.put("DE71", messageNumber);
+        data.put("PDS0023", "CT6");
+        return data;
+    }
+
+    static byte[] ipmFile(int records, boolean blocked) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MciIpm.IpmWriter writer = new MciIpm.IpmWriter(out, blocked)) {
+            for (int i = 1; i <= records; i++) writer.write(record(i));
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void testReadViews() throws IOException {
+        byte[] file = ipmFile(3000, true);
+        assertEquals(0, file.length % 1014);
+
+        List<Long> amounts = new ArrayList<>();
+        try (MciIpm.IpmReader reader = new MciIpm.IpmReader(new ByteArrayInputStream(file), true)) {
+            for (Iso8583View view : reader.views()) {
+                amounts.add((Long) view.get(4));
+                assertEquals("CT6", view.getPds("0023"));
+            }
+        }
+        assertEquals(3000, amounts.size());
+        assertEquals(300000L, (long) amounts.get(2999));
+    }
+
+    @Test
+    void testReadIntoReusedMessage() throws IOException {
+        byte[] file = ipmFile(50, false);
+        IsoMessage message = new IsoMessage();
+        Set<byte[]> buffers = Collections.newSetFromMap(new IdentityHashMap<>());
+        long total = 0;
+        int count = 0;
+        try (MciIpm.IpmReader reader = new MciIpm.IpmReader(new ByteArrayInputStream(file), false)) {
+            while (reader.next(message)) {
+                buffers.add(message.rawArray());
+                count++;
+                total += message.getLong(4);
+                assertEquals(count, message.getLong(71));
+                assertEquals("CT6", message.getPds("0023"));
+                assertEquals(record(count).get("DE2"), message.get(2));
+            }
+        }
+        assertEquals(50, count);
+        assertEquals(1, buffers.size());
+        assertEquals(100L * 50 * 51 / 2, total);
+    }
+
+    @Test
+    void testMappedReaderMatchesStreamReader() throws IOException {
+        for (boolean blocked : new boolean[]{true, false}) {
+            byte[] file = ipmFile(2000, blocked);
+            List<byte[]> expected = new ArrayList<>();
+            try (MciIpm.VbsReader reader = new MciIpm.VbsReader(new ByteArrayInputStream(file), blocked)) {
+                for (byte[] record : reader) expected.add(record);
+            }
+
+            Path path = Files.createTempFile("mapped", ".ipm");
+            try {
+                Files.write(path, file);
+                // Small windows so records cross both block and window boundaries
+                try (MciIpm.MappedIpmReader reader = new MciIpm.MappedIpmReader(path, blocked,
+                        StandardCharsets.ISO_8859_1, null, 3 * 1014)) {
+                    int count = 0;
+                    ByteBuffer record;
+                    while ((record = reader.nextRecord()) != null) {
+                        byte[] bytes = new byte[record.remaining()];
+                        record.get(bytes);
+                        assertArrayEquals(expected.get(count++), bytes);
+                    }
+                    assertEquals(expected.size(), count);
+                    assertNull(reader.nextRecord());
+                }
+
+                IsoMessage message = new IsoMessage();
+                try (MciIpm.MappedIpmReader reader = new MciIpm.MappedIpmReader(path, blocked)) {
+                    int count = 0;
+                    while (reader.next(message)) {
+                        count++;
+                        assertEquals(count, message.getLong(71));
+                    }
+                    assertEquals(2000, count);
+                }
+
+                try (MciIpm.MappedIpmReader reader = new MciIpm.MappedIpmReader(path, blocked)) {
+                    int count = 0;
+                    for (Map<String, Object> map : reader) {
+                        assertEquals(Iso8583.unpack(expected.get(count++), null), map);
+                    }
+                    assertEquals(2000, count);
+                }
+            } finally {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void testParallelDecode() throws IOException {
+        byte[] file = ipmFile(5000, true);
+        List<Long> expected = new ArrayList<>();
+        for (int i = 1; i <= 5000; i++) expected.add((long) i);
+
+        try (MciIpm.ParallelIpmReader reader = new MciIpm.ParallelIpmReader(new ByteArrayInputStream(file), true)
+                .withThreads(4).withBatchSize(100)) {
+            List<Long> numbers = new ArrayList<>();
+            for (Map<String, Object> record : reader) numbers.add((Long) record.get("DE71"));
+            assertEquals(expected, numbers);
+            // A second iteration would read the same stream on another scanner thread
+            assertThrows(IllegalStateException.class, reader::iterator);
+        }
+
+        try (MciIpm.ParallelIpmReader reader = new MciIpm.ParallelIpmReader(new ByteArrayInputStream(file), true)
+                .withThreads(4).withBatchSize(64).withOrdered(false)) {
+            List<Long> numbers = new ArrayList<>();
+            for (Map<String, Object> record : reader) numbers.add((Long) record.get("DE71"));
+            Collections.sort(numbers);
+            assertEquals(expected, numbers);
+        }
+
+        // The file is read on the scanner thread, a read error follows the records read before it
+        Set<Thread> readers = ConcurrentHashMap.newKeySet();
+        InputStream failing = new FilterInputStream(new ByteArrayInputStream(file)) {
+            private int read;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                readers.add(Thread.currentThread());
+                if (read > file.length / 2) throw new IOException("Read error");
+                int n = super.read(b, off, len);
+                read += Math.max(n, 0);
+                return n;
+            }
+        };
+        try (MciIpm.ParallelIpmReader reader = new MciIpm.ParallelIpmReader(failing, true).withThreads(2)) {
+            Iterator<Map<String, Object>> records = reader.iterator();
+            int[] count = new int[1];
+            assertThrows(UncheckedIOException.class, () -> {
+                while (records.hasNext()) {
+                    records.next();
+                    count[0]++;
+                }
+            });
+            assertTrue(count[0] > 0);
+        }
+        assertFalse(readers.contains(Thread.currentThread()));
+
+        try (MciIpm.IpmReader reader = new MciIpm.IpmReader(new ByteArrayInputStream(file), true)) {
+            List<Long> numbers = reader.stream(100).parallel()
+                    .map(record -> (Long) record.get("DE71"))
+                    .collect(Collectors.toList());
+            assertEquals(expected, numbers);
+        }
+    }
+
+    @Test
+    void testRecordIndexSeek() throws IOException {
+        byte[] file = ipmFile(3000, true);
+        Path path = Files.createTempFile("indexed", ".ipm");
+        Path sidecar = MciIpm.RecordIndex.sidecar(path);
+        try {
+            Files.write(path, file);
+            MciIpm.RecordIndex.Builder builder = MciIpm.RecordIndex.builder(true, true);
+            try (MciIpm.IpmReader reader = new MciIpm.IpmReader(new ByteArrayInputStream(file), true).withIndex(builder)) {
+                for (Map<String, Object> ignored : reader) {
+                    // index is built as the file is read
+                }
+            }
+            builder.build().write(sidecar);
+
+            MciIpm.RecordIndex index = MciIpm.RecordIndex.read(sidecar);
+            assertEquals(3000, index.size());
+            assertEquals(0, index.offset(0));
+            assertEquals(1233, index.findMessageNumber(1234));
+
+            // The same index is built when the records are read as a parallel stream
+            MciIpm.RecordIndex.Builder streamBuilder = MciIpm.RecordIndex.builder(true, true);
+            try (MciIpm.IpmReader reader = new MciIpm.IpmReader(new ByteArrayInputStream(file), true).withIndex(streamBuilder)) {
+                assertEquals(3000, reader.stream(64).parallel().count());
+            }
+            MciIpm.RecordIndex streamed = streamBuilder.build();
+            assertEquals(3000, streamed.size());
+            for (int i = 0; i < 3000; i += 97) assertEquals(index.offset(i), streamed.offset(i));
+            assertEquals(1233, streamed.findMessageNumber(1234));
+
+            MciIpm.RecordIndex.Builder mappedBuilder = MciIpm.RecordIndex.builder(true, false);
+            try (MciIpm.MappedIpmReader reader = new MciIpm.MappedIpmReader(path, true).withIndex(mappedBuilder)) {
+                while (reader.readNext() != null) {
+                    // index only
+                }
+                assertEquals(3000, mappedBuilder.size());
+                assertEquals(index.offset(2999), mappedBuilder.build().offset(2999));
+
+                IsoMessage message = new IsoMessage();
+                assertTrue(reader.seek(index, 1233).next(message));
+                assertEquals(1234, message.getLong(71));
+
+                List<byte[]> range = reader.readRange(index, 2995, 10);
+                assertEquals(5, range.size());
+                assertEquals(2996L, Iso8583.unpack(range.get(0), null).get("DE71"));
+                assertThrows(IllegalArgumentException.class, () -> reader.readRange(index, 3000, 1));
+                assertThrows(IllegalArgumentException.class, () -> reader.seek(index, -1));
+                // Records read after a seek are not added out of file order
+                assertEquals(3000, mappedBuilder.size());
+            }
+
+            MciIpm.RecordIndex.Builder partial = MciIpm.RecordIndex.builder(true, true);
+            try (MciIpm.MappedIpmReader reader = new MciIpm.MappedIpmReader(path, true).withIndex(partial)) {
+                reader.readNext();
+                reader.readNext();
+                reader.seek(index, 2000).readNext();
+                reader.seek(index, 5).readNext();
+                assertEquals(2, partial.size());
+                assertEquals(-1, partial.build().findMessageNumber(2001));
+            }
+            MciIpm.RecordIndex.Builder unordered = MciIpm.RecordIndex.builder(true, false).add(index.dataOffset(10), -1);
+            assertThrows(IllegalArgumentException.class, () -> unordered.add(index.dataOffset(5), -1));
+            assertThrows(IllegalArgumentException.class, () -> unordered.add(index.dataOffset(10), -1));
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testForEachRecordReusesBuffer() throws IOException {
+        byte[] file = ipmFile(1500, true);
+        long[] lengths = new long[1];
+        long[] next = new long[1];
+        Set<byte[]> buffers = Collections.newSetFromMap(new IdentityHashMap<>());
+        try (MciIpm.VbsReader reader = new MciIpm.VbsReader(new ByteArrayInputStream(file), true)) {
+            long count = reader.forEachRecord((buf, offset, length, recordNo) -> {
+                assertEquals(next[0]++, recordNo);
+                lengths[0] += length;
+                buffers.add(buf);
+            });
+            assertEquals(1500, count);
+        }
+        assertEquals(1, buffers.size());
+
+        long expected = 0;
+        try (MciIpm.VbsReader reader = new MciIpm.VbsReader(new ByteArrayInputStream(file), true)) {
+            for (byte[] record : reader) expected += record.length;
+        }
+        assertEquals(expected, lengths[0]);
+
+        try (MciIpm.IpmReader reader = new MciIpm.IpmReader(new ByteArrayInputStream(file), true).withMaxRecordLength(50)) {
+            assertThrows(IOException.class, () -> reader.forEachRecord((buf, offset, length, recordNo) -> { }));
+        }
+    }
+
+    @Test
+    void testReadAheadMatchesStreamReader() throws IOException {
+        byte[] file = ipmFile(2000, true);
+        Path path = Files.createTempFile("readahead", ".ipm");
+        try {
+            Files.write(path, file);
+            List<Map<String, Object>> expected = new ArrayList<>();
+            new MciIpm.IpmReader(new ByteArrayInputStream(file), true).forEach(expected::add);
+            List<Map<String, Object>> actual = new ArrayList<>();
+            // Small buffers so records span buffer boundaries
+            try (MciIpm.IpmReader reader = MciIpm.IpmReader.readAhead(path, true, StandardCharsets.ISO_8859_1, null, 3, 1000)) {
+                reader.forEach(actual::add);
+            }
+            assertEquals(expected, actual);
+
+            try (MciIpm.ReadAheadInputStream in = MciIpm.ReadAheadInputStream.open(path, 2, 4096)) {
+                assertArrayEquals(file, in.readAllBytes());
+                assertEquals(-1, in.read());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testParallelWriterMatchesIpmWriter() throws IOException {
+        for (boolean blocked : new boolean[]{true, false}) {
+            Path path = Files.createTempFile("parallel", ".ipm");
+            try {
+                // Small buffer so records cross both block and buffer boundaries
+                try (MciIpm.ParallelIpmWriter writer = new MciIpm.ParallelIpmWriter(path, blocked)
+                        .withThreads(3).withBatchSize(7).withBufferSize(2 * 1014)) {
+                    for (int i = 1; i <= 1500; i++) writer.write(record(i));
+                }
+                assertArrayEquals(ipmFile(1500, blocked), Files.readAllBytes(path));
+            } finally {
+                Files.delete(path);
+            }
+        }
+
+        // An empty writer writes only the terminator
+        ByteArrayOutputStream empty = new ByteArrayOutputStream();
+        new MciIpm.ParallelIpmWriter(java.nio.channels.Channels.newChannel(empty), true,
+                StandardCharsets.ISO_8859_1, null).close();
+        assertArrayEquals(ipmFile(0, true), empty.toByteArray());
+
+        byte[] data = new byte[3000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+        try (MciIpm.Block1014OutputStream out = new MciIpm.Block1014OutputStream(bulk)) {
+            out.write(data);
+        }
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try (MciIpm.Block1014OutputStream out = new MciIpm.Block1014OutputStream(single)) {
+            for (byte b : data) out.write(b);
+        }
+        assertArrayEquals(bulk.toByteArray(), single.toByteArray());
+        assertEquals(3 * 1014, single.size());
+    }
+
+    @Test
+    void testCompressedInputAndOutput() throws IOException {
+        byte[] file = ipmFile(1200, true);
+        List<Map<String, Object>> expected = new ArrayList<>();
+        new MciIpm.IpmReader(new ByteArrayInputStream(file), true).forEach(expected::add);
+
+        for (String suffix : new String[]{".ipm", ".ipm.gz", ".ipm.zip"}) {
+            Path path = Files.createTempFile("compressed", suffix);
+            try {
+                try (OutputStream out = MciIpm.openOutput(path)) {
+                    out.write(file);
+                }
+                assertEquals(suffix.equals(".ipm"), Arrays.equals(file, Files.readAllBytes(path)));
+                try (InputStream in = MciIpm.openInput(path)) {
+                    assertArrayEquals(file, in.readAllBytes());
+                }
+                List<Map<String, Object>> actual = new ArrayList<>();
+                try (MciIpm.ParallelIpmReader reader = new MciIpm.ParallelIpmReader(
+                        MciIpm.openInput(path, 2, 4096), true).withThreads(2)) {
+                    reader.forEach(actual::add);
+                }
+                assertEquals(expected, actual);
+
+                // Path based writers compress by name too
+                try (MciIpm.ParallelIpmWriter writer = new MciIpm.ParallelIpmWriter(path, true)) {
+                    for (int i = 1; i <= 1200; i++) writer.write(record(i));
+                }
+                assertEquals(suffix.equals(".ipm"), Arrays.equals(file, Files.readAllBytes(path)));
+                try (InputStream in = MciIpm.openInput(path)) {
+                    assertArrayEquals(file, in.readAllBytes());
+                }
+                try (MciIpm.VbsChannelWriter writer = MciIpm.VbsChannelWriter.open(path, false)) {
+                    writer.write(new byte[]{1, 2, 3});
+                }
+                try (InputStream in = MciIpm.openInput(path)) {
+                    assertArrayEquals(new byte[]{0, 0, 0, 3, 1, 2, 3, 0, 0, 0, 0}, in.readAllBytes());
+                }
+            } finally {
+                Files.delete(path);
+            }
+        }
+    }
+
+    static Map<String, Object> control(String function, Map<String, Object> pds) {
+        Map<String, Object> data = new HashMap<>(pds);
+        data.put("MTI", "1644");
+        data.put("DE24", function);
+        data.put("PDS0105", "0020010000000000101");
+        return data;
+    }
+
+    @Test
+    void testFileSummary() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MciIpm.IpmWriter writer = new MciIpm.IpmWriter(out, true)) {
+            writer.write(control("697", Map.of()));
+            for (int i = 1; i <= 100; i++) writer.write(record(i));
+            // 102 records with header and trailer, DE4 total 100 * 5050
+            writer.write(control("695", Map.of("PDS0306", "00000102", "PDS0301", "0000000000505000")));
+        }
+        byte[] file = out.toByteArray();
+
+        IpmFileSummary summary = new IpmFileSummary();
+        try (MciIpm.VbsReader reader = new MciIpm.VbsReader(new ByteArrayInputStream(file), true)) {
+            reader.forEachRecord(summary);
+        }
+        assertEquals(102, summary.records());
+        assertEquals(Map.of("1240/200", 100L, "1644/695", 1L, "1644/697", 1L), summary.counts());
+        assertEquals(Map.of("036", 505000L), summary.amounts(4));
+        assertEquals(1, summary.firstMessageNumber());
+        assertEquals(100, summary.lastMessageNumber());
+        assertEquals(List.of(), summary.reconcile());
+
+        IpmFileSummary decoded = new IpmFileSummary();
+        new MciIpm.IpmReader(new ByteArrayInputStream(file), true).forEach(decoded::accept);
+        assertEquals(summary.counts(), decoded.counts());
+        assertEquals(List.of(), decoded.reconcile());
+
+        // Missing the last record
+        IpmFileSummary partial = new IpmFileSummary();
+        try (MciIpm.IpmReader reader = new MciIpm.IpmReader(new ByteArrayInputStream(file), true)) {
+            for (Map<String, Object> record : reader) {
+                Object number = record.get("DE71");
+                if (number == null || ((Number) number).intValue() != 100) partial.accept(record);
+            }
+        }
+        assertEquals(2, partial.reconcile().size());
+    }
+
+    @Test
+    void testFilterCopiesRawRecords() throws IOException {
+        byte[] file = ipmFile(500, true);
+        List<byte[]> records = new ArrayList<>();
+        try (MciIpm.VbsReader reader = new MciIpm.VbsReader(new ByteArrayInputStream(file), true)) {
+            for (byte[] record : reader) records.add(record);
+        }
+
+        // DE4 is 100 * message number, n12: message numbers 100-199 give amounts 000000010000-000000019900
+        IpmFilter filter = new IpmFilter(IpmFilter.mti("1240")
+                .and(IpmFilter.fieldEquals(24, "200"))
+                .and(IpmFilter.fieldStartsWith(2, "555544"))
+                .and(IpmFilter.fieldBetween(4, "00000001", "00000001"))
+                .and(IpmFilter.pdsEquals("0023", "CT6")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MciIpm.VbsReader reader = new MciIpm.VbsReader(new ByteArrayInputStream(file), true);
+             MciIpm.VbsWriter writer = new MciIpm.VbsWriter(out, false)) {
+            assertEquals(100, filter.filter(reader, writer));
+        }
+        assertEquals(500, filter.records());
+
+        List<byte[]> copied = new ArrayList<>();
+        try (MciIpm.VbsReader reader = new MciIpm.VbsReader(new ByteArrayInputStream(out.toByteArray()), false)) {
+            for (byte[] record : reader) copied.add(record);
+        }
+        assertEquals(100, copied.size());
+        for (int i = 0; i < 100; i++) assertArrayEquals(records.get(99 + i), copied.get(i));
+
+        IpmFilter none = new IpmFilter(IpmFilter.hasPds("0158").or(IpmFilter.mti("1644")));
+        try (MciIpm.VbsReader reader = new MciIpm.VbsReader(new ByteArrayInputStream(file), true);
+             MciIpm.VbsWriter writer = new MciIpm.VbsWriter(new ByteArrayOutputStream(), true)) {
+            assertEquals(0, none.filter(reader, writer));
+        }
+    }
+
+    static List<byte[]> vbsRecords(Path path, boolean blocked) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        try (MciIpm.VbsReader reader = new MciIpm.VbsReader(Files.newInputStream(path), blocked)) {
+            for (byte[] record : reader) records.add(record);
+        }
+        return records;
+    }
+
+    @Test
+    void testSplitAndMerge() throws IOException {
+        Path dir = Files.createTempDirectory("split");
+        try {
+            Path input = dir.resolve("in.ipm");
+            Files.write(input, ipmFile(1000, true));
+            List<byte[]> expected = vbsRecords(input, true);
+
+            List<Path> byCount = new MciIpm.IpmSplitter(input, true).byRecordCount(300);
+            assertEquals(4, byCount.size());
+            assertEquals(100, vbsRecords(byCount.get(3), true).size());
+            Path concat = dir.resolve("concat.ipm");
+            assertEquals(1000, MciIpm.concat(byCount, true, concat, false));
+            List<byte[]> actual = vbsRecords(concat, false);
+            for (int i = 0; i < 1000; i++) assertArrayEquals(expected.get(i), actual.get(i));
+
+            List<Path> bySize = new MciIpm.IpmSplitter(input, true)
+                    .withOutput(part -> dir.resolve("size" + part + ".ipm")).bySize(10 * 1014);
+            int total = 0;
+            for (Path part : bySize) {
+                assertTrue(Files.size(part) <= 10 * 1014);
+                assertEquals(0, Files.size(part) % 1014);
+                total += vbsRecords(part, true).size();
+            }
+            assertEquals(1000, total);
+
+            // Hashing the amount spreads the records over the parts, merging the parts by DE71 restores the order
+            List<Path> byHash = new MciIpm.IpmSplitter(input, true)
+                    .withOutput(part -> dir.resolve("hash" + part + ".ipm")).withOutputBlocked(false).byHash(3, 4);
+            assertEquals(3, byHash.size());
+            for (Path part : byHash) assertFalse(vbsRecords(part, false).isEmpty());
+            Path merged = dir.resolve("merged.ipm");
+            assertEquals(1000, MciIpm.merge(byHash, false, merged, true, MciIpm.fieldOrder(71), StandardCharsets.ISO_8859_1, null));
+            actual = vbsRecords(merged, true);
+            for (int i = 0; i < 1000; i++) assertArrayEquals(expected.get(i), actual.get(i));
+        } finally {
+            try (var paths = Files.list(dir)) {
+                for (Path path : paths.collect(Collectors.toList())) Files.delete(path);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void testRowSpillDiscoversColumns() throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (RowSpill spill = new RowSpill()) {
+            spill.add(Map.of("MTI", "1240", "DE71", 1L, "DE4", 100L));
+            spill.add(Map.of("MTI", "1644", "PDS0105", "X", "DE55", new byte[]{(byte) 0x9F, 0x26}, "DE24", "697"));
+            assertEquals(List.of("MTI", "DE4", "DE24", "DE55", "DE71", "PDS0105"), spill.columns());
+            spill.replay(values -> rows.add(values.clone()));
+        }
+        assertEquals(2, rows.size());
+        assertArrayEquals(new String[]{"1240", "100", "", "", "1", ""}, rows.get(0));
+        assertArrayEquals(new String[]{"1644", "", "697", "9f26", "", "X"}, rows.get(1));
+    }
+
+    @Test
+    void testJsonLinesRoundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MciIpm.IpmWriter writer = new MciIpm.IpmWriter(out, true)) {
+            for (int i = 1; i <= 200; i++) {
+                Map<String, Object> record = record(i);
+                record.put("DE12", java.time.LocalDateTime.of(2026, 2, 19, 12, 0, i % 60));
+                record.put("DE55", new byte[]{(byte) 0x9F, 0x26, 0x02, (byte) i, 0x00});
+                record.put("DE43", "Caf\u00e9 \"Q\"\\Street\\Sydney\\2000      NSWAUS");
+                writer.write(record);
+            }
+        }
+        byte[] file = out.toByteArray();
+
+        for (JsonLinesWriter.BinaryEncoding binary : JsonLinesWriter.BinaryEncoding.values()) {
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            try (MciIpm.IpmReader reader = new MciIpm.IpmReader(new ByteArrayInputStream(file), true);
+                 JsonLinesWriter writer = new JsonLinesWriter(json).withBinaryEncoding(binary)) {
+                for (Map<String, Object> record : reader) writer.write(record);
+                assertEquals(200, writer.records());
+            }
+            String text = json.toString(StandardCharsets.UTF_8);
+            assertEquals(200, text.lines().count());
+            assertTrue(text.contains("\"DE4\":100,"));
+            assertTrue(text.contains("\"DE12\":\"2026-02-19T12:00:01\""));
+
+            ByteArrayOutputStream ipm = new ByteArrayOutputStream();
+            try (JsonLinesReader reader = new JsonLinesReader(new ByteArrayInputStream(json.toByteArray()))
+                    .withBinaryEncoding(binary);
+                 MciIpm.IpmWriter writer = new MciIpm.IpmWriter(ipm, true)) {
+                for (Map<String, Object> record : reader) writer.write(record);
+            }
+            assertArrayEquals(file, ipm.toByteArray());
+        }
+
+        for (String line : new String[]{"{\"MTI\":\"1240\",\"DE55\":\"9F26zz\"}", "{\"MTI\":\"1240\",\"DE55\":\"9F2\"}",
+                "{\"MTI\":\"1240\"} junk"}) {
+            try (JsonLinesReader reader = new JsonLinesReader(new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8)))) {
+                assertThrows(CardutilError.class, reader::readNext);
+            }
+        }
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try (JsonLinesWriter writer = new JsonLinesWriter(json)) {
+            Map<String, Object> record = new java.util.LinkedHashMap<>();
+            record.put("A", Double.NaN);
+            record.put("B", Float.NEGATIVE_INFINITY);
+            record.put("C", 1.5);
+            writer.write(record);
+        }
+        assertEquals("{\"A\":\"NaN\",\"B\":\"-Infinity\",\"C\":1.5}\n", json.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testRowMappingMatchesIpmWriter() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MciIpm.IpmWriter writer = new MciIpm.IpmWriter(out, true)) {
+            for (int i = 1; i <= 500; i++) {
+                Map<String, Object> record = record(i);
+                record.put("DE12", java.time.LocalDateTime.of(2026, 2, 19, 12, 0, i % 60));
+                record.put("DE55", new byte[]{(byte) 0x9F, 0x26, 0x02, (byte) i, 0x00});
+                record.put("DE43", "Cafe\\Street\\Sydney\\2000      NSWAUS");
+                if (i % 3 == 0) record.put("PDS0158", "MCC" + i);
+                writer.write(record);
+            }
+        }
+        byte[] file = out.toByteArray();
+
+        // Rows as ipm2csv writes them, including the DE43_ subfield columns
+        List<String[]> rows = new ArrayList<>();
+        List<String> header;
+        try (RowSpill spill = new RowSpill();
+             MciIpm.IpmReader reader = new MciIpm.IpmReader(new ByteArrayInputStream(file), true)) {
+            for (Map<String, Object> record : reader) spill.add(record);
+            header = spill.columns();
+            spill.replay(values -> rows.add(values.clone()));
+        }
+        assertTrue(header.contains("DE43_NAME"));
+
+        // Rows are packed with the writer's config, not the one the mapping was made with
+        Map<Integer, BitConfig> other = new HashMap<>(Config.DEFAULT_BIT_CONFIG);
+        other.put(4, BitConfig.builder().fieldName("Amount").fieldType(BitConfig.FieldType.LLVAR).fieldLength(12)
+                .fieldJavaType("long").build());
+        IpmRowMapping mapping = IpmRowMapping.of(header, other);
+        Path path = Files.createTempFile("rows", ".ipm");
+        try {
+            try (MciIpm.ParallelIpmWriter writer = new MciIpm.ParallelIpmWriter(path, true)
+                    .withThreads(3).withBatchSize(11)) {
+                for (String[] row : rows) writer.write(mapping, row);
+            }
+            assertArrayEquals(file, Files.readAllBytes(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testGeneratorIsDeterministicAndReconciles() throws IOException {
+        java.time.LocalDate date = java.time.LocalDate.of(2026, 2, 19);
+        Path one = Files.createTempFile("generated", ".ipm");
+        Path many = Files.createTempFile("generated", ".ipm");
+        try {
+            assertEquals(5002, new IpmGenerator(42).withDate(date).withThreads(1).generate(one, true, 5000));
+            new IpmGenerator(42).withDate(date).withThreads(4).generate(many, true, 5000);
+            assertArrayEquals(Files.readAllBytes(one), Files.readAllBytes(many));
+
+            IpmFileSummary summary = new IpmFileSummary();
+            try (MciIpm.VbsReader reader = new MciIpm.VbsReader(Files.newInputStream(one), true)) {
+                reader.forEachRecord(summary);
+            }
+            assertEquals(5002, summary.records());
+            assertEquals(0, summary.invalidRecords());
+            assertEquals(1, summary.firstMessageNumber());
+            assertEquals(5002, summary.lastMessageNumber());
+            assertEquals(List.of(), summary.reconcile());
+
+            try (MciIpm.IpmReader reader = new MciIpm.IpmReader(Files.newInputStream(one), true)) {
+                for (Map<String, Object> record : reader) {
+                    if (record.get("DE2") != null) assertTrue(Card.validateCheckDigit((String) record.get("DE2")));
+                }
+            }
+        } finally {
+            Files.delete(one);
+            Files.delete(many);
+        }
+    }
+
+    @Test
+    void testGeneratorProfileBounds() {
+        for (int size = 54; size <= 120; size++) {
+            IpmGenerator.Profile profile = IpmGenerator.Profile.empty()
+                    .withType(new IpmGenerator.MessageType("1240", "200", null), 1)
+                    .withIcc(100, size, size)
+                    .withPdsCount(12, 12);
+            Map<String, Object> record = new IpmGenerator(size).withProfile(profile).record(2);
+            assertEquals(size, ((byte[]) record.get("DE55")).length);
+            assertEquals(11, record.keySet().stream().filter(key -> key.startsWith("PDS")).count());
+        }
+    }
+}